@@ -0,0 +1,96 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vectorized versions of the kernels in PixelKernels, built on the Java Vector
+ * API. Each step processes as many pixels as fit in the machine's preferred
+ * vector size: the pixels are unpacked into R, G, and B lanes, the luma is taken
+ * as a weighted sum, the factors are gathered from the table, and the scaled
+ * values are clamped and repacked. Any pixels left over at the end of a run are
+ * handled by the scalar code.
+ *
+ * This class needs the jdk.incubator.vector module, both to compile and to run,
+ * so it is kept out of the main source folder, which compiles without the
+ * module. It is only ever loaded through PixelKernels, which falls back to the
+ * scalar kernels when the class or the module is missing.
+ *
+ * @author Louis Hildebrand
+ */
+public class VectorPixelKernels extends PixelKernels
+{
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	@Override
+	public void computeLuma(int[] pixels, int offset, int length, int[] luma)
+	{
+		int c = 0;
+		int upperBound = SPECIES.loopBound(length);
+		for (; c < upperBound; c += SPECIES.length())
+		{
+			IntVector pixel = IntVector.fromArray(SPECIES, pixels, offset + c);
+			getLuma(pixel).intoArray(luma, c);
+		}
+
+		for (; c < length; c++)
+		{
+			int pixel = pixels[offset + c];
+			luma[c] = RED_WEIGHT * ((pixel >>> 16) & 0xFF) + GREEN_WEIGHT * ((pixel >>> 8) & 0xFF) + BLUE_WEIGHT * (pixel & 0xFF);
+		}
+	}
+
+	@Override
+	public void adjust(int[] pixels, int offset, int length, int[] factors, int blackValue)
+	{
+		int black = (blackValue << 16) | (blackValue << 8) | blackValue;
+		// The gather takes its indices from an array, so the luma of each step is stored here first
+		int[] lumaLanes = new int[SPECIES.length()];
+		int c = 0;
+		int upperBound = SPECIES.loopBound(length);
+		for (; c < upperBound; c += SPECIES.length())
+		{
+			int i = offset + c;
+			IntVector pixel = IntVector.fromArray(SPECIES, pixels, i);
+			IntVector r = pixel.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+			IntVector g = pixel.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+			IntVector b = pixel.and(0xFF);
+			IntVector luma = r.mul(RED_WEIGHT).add(g.mul(GREEN_WEIGHT)).add(b.mul(BLUE_WEIGHT));
+			luma.intoArray(lumaLanes, 0);
+			IntVector f = IntVector.fromArray(SPECIES, factors, 0, lumaLanes, 0);
+
+			IntVector alpha = pixel.and(0xFF000000);
+			IntVector adjusted = alpha.or(scale(r, f).lanewise(VectorOperators.LSHL, 16)).or(scale(g, f).lanewise(VectorOperators.LSHL, 8))
+					.or(scale(b, f));
+			VectorMask<Integer> isBlack = luma.eq(0);
+			adjusted.blend(alpha.or(black), isBlack).intoArray(pixels, i);
+		}
+
+		super.adjust(pixels, offset + c, length - c, factors, blackValue);
+	}
+
+	/**
+	 * @param pixel A vector of pixels (in ARGB format)
+	 * @return The luma of each pixel, scaled by 1000
+	 */
+	private static IntVector getLuma(IntVector pixel)
+	{
+		IntVector r = pixel.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+		IntVector g = pixel.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+		IntVector b = pixel.and(0xFF);
+		return r.mul(RED_WEIGHT).add(g.mul(GREEN_WEIGHT)).add(b.mul(BLUE_WEIGHT));
+	}
+
+	/**
+	 * Scales colour values by fixed-point factors, limiting the results to the
+	 * range [0, 255].
+	 *
+	 * @param value  The values to be scaled, in the range [0, 255]
+	 * @param factor The scale factors, with FRACTION_BITS fractional bits
+	 * @return The scaled values
+	 */
+	private static IntVector scale(IntVector value, IntVector factor)
+	{
+		return value.mul(factor).lanewise(VectorOperators.LSHR, FRACTION_BITS).min(255);
+	}
+}
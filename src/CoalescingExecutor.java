@@ -0,0 +1,179 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs tasks one at a time on a single background thread. Each task is
+ * submitted for an operation (e.g. reloading the pages or setting the
+ * brightness), and only the newest request for each operation is kept: a
+ * request that is still waiting in the queue is replaced, and a request that is
+ * already running is interrupted. Long tasks should therefore check
+ * Thread.interrupted() (or handle InterruptedException) between steps, so that
+ * only the final requested state is computed.
+ *
+ * Requests for different operations are run in the order in which they were
+ * last submitted. A task that fails is reported to the user, and the thread
+ * goes on with the next request.
+ *
+ * @author Louis Hildebrand
+ */
+public class CoalescingExecutor
+{
+	private static final int NO_OPERATION = -1;
+
+	private LinkedHashMap<Integer, Runnable> pendingTasks;
+	private String threadName;
+	private int threadPriority;
+	private Thread worker;
+	private int runningOperation;
+
+	/**
+	 * Creates an executor. Its thread is only started when the first task is
+	 * submitted.
+	 *
+	 * @param threadName The name of the background thread
+	 */
+	public CoalescingExecutor(String threadName)
+	{
+		this(threadName, Thread.NORM_PRIORITY);
+	}
+
+	/**
+	 * Creates an executor whose thread runs at the given priority. Its thread is
+	 * only started when the first task is submitted.
+	 *
+	 * @param threadName     The name of the background thread
+	 * @param threadPriority The priority of the background thread (e.g.
+	 *                       Thread.MIN_PRIORITY for work that may be delayed)
+	 */
+	public CoalescingExecutor(String threadName, int threadPriority)
+	{
+		pendingTasks = new LinkedHashMap<Integer, Runnable>();
+		this.threadName = threadName;
+		this.threadPriority = threadPriority;
+		runningOperation = NO_OPERATION;
+	}
+
+	/**
+	 * Queues a task for the given operation. Any request for the same operation
+	 * that is still waiting is discarded, and a request for the same operation
+	 * that is running is interrupted.
+	 *
+	 * @param operation A non-negative number identifying the operation
+	 * @param task      The task to be run
+	 */
+	public synchronized void submit(int operation, Runnable task)
+	{
+		if (operation < 0)
+			throw new IllegalArgumentException("The operation must be non-negative");
+
+		// Remove the old request first so that the new one is placed at the end of the queue
+		pendingTasks.remove(operation);
+		pendingTasks.put(operation, task);
+		if (operation == runningOperation)
+			worker.interrupt();
+
+		if (worker == null)
+		{
+			worker = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					runTasks();
+				}
+			}, threadName);
+			worker.setDaemon(true);
+			worker.setPriority(threadPriority);
+			worker.start();
+		}
+		else
+		{
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Queues a task for the given operation unless a request for the same
+	 * operation is already waiting or running, in which case the new request is
+	 * ignored. Unlike submit(), this never discards or interrupts a request, so it
+	 * suits operations that must run to completion once started.
+	 *
+	 * @param operation A non-negative number identifying the operation
+	 * @param task      The task to be run
+	 * @return TRUE if the task was queued and FALSE if it was ignored
+	 */
+	public synchronized boolean submitIfIdle(int operation, Runnable task)
+	{
+		if (pendingTasks.containsKey(operation) || operation == runningOperation)
+			return false;
+		submit(operation, task);
+		return true;
+	}
+
+	/**
+	 * Tells the user that a task failed. The message is shown on the event
+	 * dispatch thread.
+	 *
+	 * @param e The exception or error thrown by the task
+	 */
+	private void reportFailure(Throwable e)
+	{
+		String msg = threadName + " failed: " + e;
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				ScanProcessor.showErrorMessage(msg);
+			}
+		});
+	}
+
+	/**
+	 * Runs the queued tasks forever, waiting whenever the queue is empty.
+	 */
+	private void runTasks()
+	{
+		while (true)
+		{
+			Runnable task;
+			synchronized (this)
+			{
+				while (pendingTasks.isEmpty())
+				{
+					try
+					{
+						wait();
+					}
+					catch (InterruptedException e)
+					{
+					}
+				}
+
+				Iterator<Map.Entry<Integer, Runnable>> it = pendingTasks.entrySet().iterator();
+				Map.Entry<Integer, Runnable> next = it.next();
+				it.remove();
+				runningOperation = next.getKey();
+				task = next.getValue();
+				// Clear any interrupt meant for an earlier task
+				Thread.interrupted();
+			}
+
+			try
+			{
+				task.run();
+			}
+			catch (Throwable e)
+			{
+				// Keep the thread alive for later requests, even after an Error such as running out of memory
+				reportFailure(e);
+			}
+
+			synchronized (this)
+			{
+				runningOperation = NO_OPERATION;
+				Thread.interrupted();
+			}
+		}
+	}
+}
@@ -0,0 +1,138 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Detects colour images whose pixels are all (nearly) gray and converts them to
+ * TYPE_BYTE_GRAY, which takes a quarter of the memory of a TYPE_INT_RGB image
+ * and a third of that of a TYPE_3BYTE_BGR image. Scans of black-and-white
+ * documents are usually decoded as colour images with a little colour noise, so
+ * a pixel counts as gray if its R, G, and B values differ by at most a given
+ * tolerance.
+ *
+ * Each gray sample is the rounded luma of the pixel, with the same NTSC weights
+ * as LumaStatistics. The samples are display values, as Graphics2D draws them
+ * and ImageIO writes them, rather than values in the linear gray colour space
+ * that getRGB() and setRGB() assume. The rest of the program treats them the
+ * same way.
+ *
+ * @author Louis Hildebrand
+ */
+public class GrayscaleConverter
+{
+	private static final int RED_WEIGHT = 299;
+	private static final int GREEN_WEIGHT = 587;
+	private static final int BLUE_WEIGHT = 114;
+	private static final int WEIGHT_SCALE = 1000;
+
+	/**
+	 * Converts the given image to TYPE_BYTE_GRAY if all of its pixels are gray.
+	 * Images that are already gray or have alpha are never converted.
+	 *
+	 * @param img       The image to be converted
+	 * @param tolerance The largest difference between the R, G, and B values of a
+	 *                  pixel for it to count as gray
+	 * @return A new gray image, or NULL if the image is not gray
+	 */
+	public static BufferedImage toGray(BufferedImage img, int tolerance)
+	{
+		if (img.getType() == BufferedImage.TYPE_BYTE_GRAY || img.getColorModel().hasAlpha())
+			return null;
+
+		int width = img.getWidth();
+		int height = img.getHeight();
+		BufferedImage gray = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		byte[] grayData = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+
+		Raster raster = img.getRaster();
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		int x0 = -raster.getSampleModelTranslateX();
+		int y0 = -raster.getSampleModelTranslateY();
+		int j = 0;
+
+		switch (img.getType())
+		{
+			case BufferedImage.TYPE_3BYTE_BGR:
+			{
+				ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+				byte[] data = ((DataBufferByte) dataBuffer).getData();
+				int pixelStride = sm.getPixelStride();
+				int scanlineStride = sm.getScanlineStride();
+				int[] offsets = sm.getBandOffsets();
+				int offset = dataBuffer.getOffset();
+				for (int r = 0; r < height; r++)
+				{
+					int i = offset + (y0 + r) * scanlineStride + x0 * pixelStride;
+					for (int c = 0; c < width; c++, i += pixelStride, j++)
+					{
+						int value = toGray(data[i + offsets[0]] & 0xFF, data[i + offsets[1]] & 0xFF, data[i + offsets[2]] & 0xFF, tolerance);
+						if (value < 0)
+							return null;
+						grayData[j] = (byte) value;
+					}
+				}
+				break;
+			}
+			case BufferedImage.TYPE_INT_RGB:
+			{
+				SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+				int[] data = ((DataBufferInt) dataBuffer).getData();
+				int scanlineStride = sm.getScanlineStride();
+				int offset = dataBuffer.getOffset();
+				for (int r = 0; r < height; r++)
+				{
+					int i = offset + (y0 + r) * scanlineStride + x0;
+					for (int c = 0; c < width; c++, i++, j++)
+					{
+						int pixel = data[i];
+						int value = toGray((pixel >>> 16) & 0xFF, (pixel >>> 8) & 0xFF, pixel & 0xFF, tolerance);
+						if (value < 0)
+							return null;
+						grayData[j] = (byte) value;
+					}
+				}
+				break;
+			}
+			default:
+			{
+				int[] row = new int[width];
+				for (int r = 0; r < height; r++)
+				{
+					img.getRGB(0, r, width, 1, row, 0, width);
+					for (int c = 0; c < width; c++, j++)
+					{
+						int pixel = row[c];
+						int value = toGray((pixel >>> 16) & 0xFF, (pixel >>> 8) & 0xFF, pixel & 0xFF, tolerance);
+						if (value < 0)
+							return null;
+						grayData[j] = (byte) value;
+					}
+				}
+				break;
+			}
+		}
+
+		return gray;
+	}
+
+	/**
+	 * @param r         The red value of a pixel
+	 * @param g         The green value of the pixel
+	 * @param b         The blue value of the pixel
+	 * @param tolerance The largest difference between the values for the pixel to
+	 *                  count as gray
+	 * @return The rounded luma of the pixel, or -1 if the pixel is not gray
+	 */
+	private static int toGray(int r, int g, int b, int tolerance)
+	{
+		int max = Math.max(r, Math.max(g, b));
+		int min = Math.min(r, Math.min(g, b));
+		if (max - min > tolerance)
+			return -1;
+		return (RED_WEIGHT * r + GREEN_WEIGHT * g + BLUE_WEIGHT * b + WEIGHT_SCALE / 2) / WEIGHT_SCALE;
+	}
+}
@@ -0,0 +1,320 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+
+/**
+ * Resamples images to a given size, producing a BufferedImage directly.
+ *
+ * Downscaling is done in several steps: the image is halved with bilinear
+ * interpolation until it is less than twice the target size, which averages
+ * every source pixel like a box filter, and the last step is done with the
+ * requested interpolation. This gives quality comparable to
+ * Image.SCALE_SMOOTH at a fraction of the time. The last step can also use a
+ * separable Lanczos filter, which is slower but sharper.
+ *
+ * The result is of type TYPE_BYTE_GRAY if the image is, so that gray pages keep
+ * a single channel, and otherwise of type TYPE_INT_ARGB if the image has alpha
+ * and TYPE_INT_RGB if not. Gray samples are resampled as they are, as Graphics2D
+ * draws them between gray images.
+ *
+ * @author Louis Hildebrand
+ */
+public class ImageScaler
+{
+	/**
+	 * Bilinear interpolation in Graphics2D
+	 */
+	public static final int QUALITY_BILINEAR = 0;
+	/**
+	 * Bicubic interpolation in Graphics2D
+	 */
+	public static final int QUALITY_BICUBIC = 1;
+	/**
+	 * A separable Lanczos filter with 3 lobes
+	 */
+	public static final int QUALITY_LANCZOS = 2;
+
+	private static final int LANCZOS_LOBES = 3;
+
+	/**
+	 * Computes the largest size with the same aspect ratio as the given image that
+	 * fits in the given bounds.
+	 *
+	 * @param img       The image to be scaled
+	 * @param maxWidth  The maximum width
+	 * @param maxHeight The maximum height
+	 * @return {width, height}, each at least 1
+	 */
+	public static int[] getSizeToFit(BufferedImage img, int maxWidth, int maxHeight)
+	{
+		int width, height;
+		// -- Tall image
+		if ((long) img.getHeight() * maxWidth >= (long) img.getWidth() * maxHeight)
+		{
+			height = maxHeight;
+			width = (int) ((long) img.getWidth() * height / img.getHeight());
+		}
+		// -- Wide image
+		else
+		{
+			width = maxWidth;
+			height = (int) ((long) img.getHeight() * width / img.getWidth());
+		}
+		return new int[] { Math.max(1, width), Math.max(1, height) };
+	}
+
+	/**
+	 * Scales the given image to the given size. The image itself is not modified.
+	 *
+	 * @param img     The image to be scaled
+	 * @param width   The width of the result
+	 * @param height  The height of the result
+	 * @param quality QUALITY_BILINEAR, QUALITY_BICUBIC, or QUALITY_LANCZOS
+	 * @return A new image of the given size
+	 */
+	public static BufferedImage scale(BufferedImage img, int width, int height, int quality)
+	{
+		if (quality != QUALITY_BILINEAR && quality != QUALITY_BICUBIC && quality != QUALITY_LANCZOS)
+			throw new IllegalArgumentException("Unknown quality: " + quality);
+		int type;
+		if (img.getType() == BufferedImage.TYPE_BYTE_GRAY)
+			type = BufferedImage.TYPE_BYTE_GRAY;
+		else if (img.getColorModel().hasAlpha())
+			type = BufferedImage.TYPE_INT_ARGB;
+		else
+			type = BufferedImage.TYPE_INT_RGB;
+
+		// Halve the image until it is less than twice the target size
+		BufferedImage current = img;
+		int currentWidth = img.getWidth();
+		int currentHeight = img.getHeight();
+		while (currentWidth / 2 >= width && currentHeight / 2 >= height)
+		{
+			currentWidth /= 2;
+			currentHeight /= 2;
+			current = draw(current, currentWidth, currentHeight, type, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		}
+
+		if (currentWidth == width && currentHeight == height && current != img)
+			return current;
+		else if (quality == QUALITY_LANCZOS)
+			return scaleLanczos(toType(current, type), width, height);
+		else if (quality == QUALITY_BICUBIC)
+			return draw(current, width, height, type, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+		else
+			return draw(current, width, height, type, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+	}
+
+	/**
+	 * Scales the given image to the largest size that fits in the given bounds
+	 * while keeping its aspect ratio. See scale().
+	 *
+	 * @param img       The image to be scaled
+	 * @param maxWidth  The maximum width
+	 * @param maxHeight The maximum height
+	 * @param quality   QUALITY_BILINEAR, QUALITY_BICUBIC, or QUALITY_LANCZOS
+	 * @return A new image that fits in the bounds
+	 */
+	public static BufferedImage scaleToFit(BufferedImage img, int maxWidth, int maxHeight, int quality)
+	{
+		int[] size = getSizeToFit(img, maxWidth, maxHeight);
+		return scale(img, size[0], size[1], quality);
+	}
+
+	/**
+	 * Draws the given image at the given size in Graphics2D.
+	 *
+	 * @param img           The image to be drawn
+	 * @param width         The width of the result
+	 * @param height        The height of the result
+	 * @param type          The type of the result
+	 * @param interpolation The interpolation hint to use
+	 * @return A new image of the given size
+	 */
+	private static BufferedImage draw(BufferedImage img, int width, int height, int type, Object interpolation)
+	{
+		BufferedImage scaled = new BufferedImage(width, height, type);
+		Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g.drawImage(img, 0, 0, width, height, null);
+		g.dispose();
+		return scaled;
+	}
+
+	/**
+	 * @param img  An image
+	 * @param type TYPE_BYTE_GRAY, TYPE_INT_RGB, or TYPE_INT_ARGB
+	 * @return The image itself if it is of the given type, or a copy converted to
+	 *         that type
+	 */
+	private static BufferedImage toType(BufferedImage img, int type)
+	{
+		if (img.getType() == type)
+			return img;
+		return draw(img, img.getWidth(), img.getHeight(), type, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+	}
+
+	/**
+	 * Scales the given image with a separable Lanczos filter: the rows are
+	 * resampled first, then the columns. When downscaling, the filter is widened by
+	 * the scale factor so that every source pixel contributes.
+	 *
+	 * Gray samples are read and written directly rather than through getRGB(),
+	 * which would convert them from the linear gray colour space.
+	 *
+	 * @param img    The image to be scaled, of type TYPE_BYTE_GRAY, TYPE_INT_RGB,
+	 *               or TYPE_INT_ARGB
+	 * @param width  The width of the result
+	 * @param height The height of the result
+	 * @return A new image of the given size and the same type
+	 */
+	private static BufferedImage scaleLanczos(BufferedImage img, int width, int height)
+	{
+		int srcWidth = img.getWidth();
+		int srcHeight = img.getHeight();
+		boolean gray = (img.getType() == BufferedImage.TYPE_BYTE_GRAY);
+		int[] src;
+		if (gray)
+		{
+			// Treat each sample as an opaque pixel with R = G = B = sample
+			src = img.getRaster().getSamples(0, 0, srcWidth, srcHeight, 0, (int[]) null);
+			for (int i = 0; i < src.length; i++)
+			{
+				src[i] = 0xFF000000 | (src[i] * 0x010101);
+			}
+		}
+		else
+		{
+			src = img.getRGB(0, 0, srcWidth, srcHeight, null, 0, srcWidth);
+		}
+
+		// Resample the rows, then the columns
+		int[] rows = new int[width * srcHeight];
+		resample(src, srcWidth, srcHeight, 1, srcWidth, rows, width, 1, width);
+		int[] dst = new int[width * height];
+		resample(rows, srcHeight, width, width, 1, dst, height, width, 1);
+
+		BufferedImage scaled = new BufferedImage(width, height, img.getType());
+		if (gray)
+		{
+			WritableRaster raster = scaled.getRaster();
+			for (int i = 0; i < dst.length; i++)
+			{
+				dst[i] &= 0xFF;
+			}
+			raster.setSamples(0, 0, width, height, 0, dst);
+		}
+		else
+		{
+			System.arraycopy(dst, 0, ((DataBufferInt) scaled.getRaster().getDataBuffer()).getData(), 0, dst.length);
+		}
+		return scaled;
+	}
+
+	/**
+	 * Resamples lines of ARGB pixels along one axis. The line and pixel strides
+	 * allow the same code to resample rows or columns.
+	 *
+	 * @param src           The source pixels
+	 * @param srcLength     The number of pixels in each source line
+	 * @param numLines      The number of lines
+	 * @param srcPixelStep  The distance between neighbouring pixels in a source
+	 *                      line
+	 * @param srcLineStep   The distance between neighbouring source lines
+	 * @param dst           The array in which to store the resampled pixels
+	 * @param dstLength     The number of pixels in each resampled line
+	 * @param dstPixelStep  The distance between neighbouring pixels in a resampled
+	 *                      line
+	 * @param dstLineStep   The distance between neighbouring resampled lines
+	 */
+	private static void resample(int[] src, int srcLength, int numLines, int srcPixelStep, int srcLineStep, int[] dst, int dstLength,
+			int dstPixelStep, int dstLineStep)
+	{
+		double scale = (double) dstLength / srcLength;
+		double filterScale = Math.min(scale, 1);
+		double support = LANCZOS_LOBES / filterScale;
+
+		// Precompute the contributing source pixels and their weights for every output pixel
+		int[] first = new int[dstLength];
+		double[][] weights = new double[dstLength][];
+		for (int i = 0; i < dstLength; i++)
+		{
+			double center = (i + 0.5) / scale - 0.5;
+			int start = Math.max(0, (int) Math.ceil(center - support));
+			int end = Math.min(srcLength - 1, (int) Math.floor(center + support));
+			double[] w = new double[Math.max(1, end - start + 1)];
+			double sum = 0;
+			for (int j = start; j <= end; j++)
+			{
+				w[j - start] = lanczos((j - center) * filterScale);
+				sum += w[j - start];
+			}
+			if (sum == 0)
+			{
+				// Fall back to the nearest pixel
+				start = Math.min(srcLength - 1, Math.max(0, (int) Math.round(center)));
+				w = new double[] { 1 };
+				sum = 1;
+			}
+			for (int k = 0; k < w.length; k++)
+			{
+				w[k] /= sum;
+			}
+			first[i] = start;
+			weights[i] = w;
+		}
+
+		for (int line = 0; line < numLines; line++)
+		{
+			int srcLine = line * srcLineStep;
+			int dstLine = line * dstLineStep;
+			for (int i = 0; i < dstLength; i++)
+			{
+				double a = 0, r = 0, g = 0, b = 0;
+				double[] w = weights[i];
+				int s = srcLine + first[i] * srcPixelStep;
+				for (int k = 0; k < w.length; k++, s += srcPixelStep)
+				{
+					int pixel = src[s];
+					a += w[k] * (pixel >>> 24);
+					r += w[k] * ((pixel >>> 16) & 0xFF);
+					g += w[k] * ((pixel >>> 8) & 0xFF);
+					b += w[k] * (pixel & 0xFF);
+				}
+				dst[dstLine + i * dstPixelStep] = (clamp(a) << 24) | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+			}
+		}
+	}
+
+	/**
+	 * @param x The distance from the center of the filter, in pixels
+	 * @return The weight of the Lanczos filter at that distance
+	 */
+	private static double lanczos(double x)
+	{
+		if (x == 0)
+			return 1;
+		if (x <= -LANCZOS_LOBES || x >= LANCZOS_LOBES)
+			return 0;
+		double px = Math.PI * x;
+		return LANCZOS_LOBES * Math.sin(px) * Math.sin(px / LANCZOS_LOBES) / (px * px);
+	}
+
+	/**
+	 * @param value A filtered colour value
+	 * @return The value rounded and limited to the range [0, 255]
+	 */
+	private static int clamp(double value)
+	{
+		int rounded = (int) Math.round(value);
+		if (rounded < 0)
+			return 0;
+		else if (rounded > 255)
+			return 255;
+		else
+			return rounded;
+	}
+}
@@ -0,0 +1,70 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encodes images as JPEG files in memory. The same bytes can then be written to
+ * a file and kept as the compressed contents of a page, or embedded in a PDF,
+ * without encoding the image again.
+ *
+ * @author Louis Hildebrand
+ */
+public class JPEGEncoder
+{
+	/**
+	 * The quality used by ImageIO.write()
+	 */
+	public static final float DEFAULT_QUALITY = 0.75f;
+
+	/**
+	 * Encodes the given image as a JPEG with the same settings as ImageIO.write().
+	 *
+	 * @param img The image to be encoded
+	 * @return The contents of the JPEG file
+	 * @throws IOException If the image could not be encoded
+	 */
+	public static byte[] encode(BufferedImage img) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (!ImageIO.write(img, "jpg", out))
+			throw new IOException("No JPEG writer supports this image");
+		return out.toByteArray();
+	}
+
+	/**
+	 * Encodes the given image as a JPEG of the given quality.
+	 *
+	 * @param img     The image to be encoded
+	 * @param quality The JPEG quality, between 0 and 1 (see DEFAULT_QUALITY)
+	 * @return The contents of the JPEG file
+	 * @throws IOException If the image could not be encoded
+	 */
+	public static byte[] encode(BufferedImage img, float quality) throws IOException
+	{
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
+		if (!writers.hasNext())
+			throw new IOException("No JPEG writer is available");
+
+		ImageWriter writer = writers.next();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(out))
+		{
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality);
+			writer.setOutput(output);
+			writer.write(null, new IIOImage(img, null, null), param);
+		}
+		finally
+		{
+			writer.dispose();
+		}
+		return out.toByteArray();
+	}
+}
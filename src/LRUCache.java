@@ -0,0 +1,49 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map that holds at most a fixed number of entries. Entries are kept in
+ * access order, and the least recently used entry is evicted whenever adding a
+ * new entry would exceed the capacity. This class is not thread-safe.
+ *
+ * @author Louis Hildebrand
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the cached values
+ */
+public class LRUCache<K, V> extends LinkedHashMap<K, V>
+{
+	private static final long serialVersionUID = 1L;
+
+	private int capacity;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param capacity The maximum number of entries to keep (must be at least 1)
+	 */
+	public LRUCache(int capacity)
+	{
+		super(16, 0.75f, true);
+		if (capacity < 1)
+			throw new IllegalArgumentException("The cache capacity must be at least 1");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return The maximum number of entries kept in the cache
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Evicts the least recently used entry once the capacity has been exceeded.
+	 */
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+	{
+		return size() > capacity;
+	}
+}
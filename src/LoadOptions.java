@@ -0,0 +1,210 @@
+import java.io.File;
+
+/**
+ * Settings that control how an OrderedImages instance loads and stores its
+ * pages. The default settings keep a small cache of decoded pages on the heap
+ * and decode every other page from its file when it is needed.
+ *
+ * @author Louis Hildebrand
+ */
+public class LoadOptions
+{
+	/**
+	 * Decoded pages are only kept in the heap cache and are otherwise decoded from
+	 * their files
+	 */
+	public static final int BACKING_HEAP = 0;
+	/**
+	 * The pixels of every page are kept in direct buffers outside the Java heap
+	 */
+	public static final int BACKING_DIRECT = 1;
+	/**
+	 * The pixels of every page are kept in a memory-mapped scratch file, so the
+	 * operating system can page them out when memory runs low
+	 */
+	public static final int BACKING_MAPPED = 2;
+	/**
+	 * The compressed contents of the file of every page are kept on the heap, and
+	 * the pages are decoded from them whenever they are needed. No decoded
+	 * originals are kept.
+	 */
+	public static final int BACKING_COMPRESSED = 3;
+	/**
+	 * Pages are decoded at the largest reduced resolution (at most 1/8) that is
+	 * still at least twice the size of their previews
+	 */
+	public static final int SUBSAMPLING_AUTO = 0;
+	/**
+	 * Pages are never converted to grayscale
+	 */
+	public static final int GRAYSCALE_NEVER = -1;
+
+	private int cacheSize = OrderedImages.DEFAULT_CACHE_SIZE;
+	private int previewCacheSize = OrderedImages.DEFAULT_PREVIEW_CACHE_SIZE;
+	private int pixelBacking = BACKING_HEAP;
+	private int previewSubsampling = 1;
+	private double statisticsTolerance = 0;
+	private int grayscaleTolerance = GRAYSCALE_NEVER;
+	private File scratchDirectory = new File(System.getProperty("java.io.tmpdir"));
+
+	/**
+	 * @return The maximum number of original images and the maximum number of
+	 *         edited images to keep on the heap
+	 */
+	public int getCacheSize()
+	{
+		return cacheSize;
+	}
+
+	/**
+	 * @param cacheSize The maximum number of original images and the maximum number
+	 *                  of edited images to keep on the heap (at least 1)
+	 */
+	public void setCacheSize(int cacheSize)
+	{
+		if (cacheSize < 1)
+			throw new IllegalArgumentException("The cache size must be at least 1");
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * @return The maximum number of original previews and the maximum number of
+	 *         edited previews to keep on the heap
+	 */
+	public int getPreviewCacheSize()
+	{
+		return previewCacheSize;
+	}
+
+	/**
+	 * @param previewCacheSize The maximum number of original previews and the
+	 *                         maximum number of edited previews to keep on the
+	 *                         heap (at least 1). Original previews that are not
+	 *                         in memory are made again from their pages.
+	 */
+	public void setPreviewCacheSize(int previewCacheSize)
+	{
+		if (previewCacheSize < 1)
+			throw new IllegalArgumentException("The preview cache size must be at least 1");
+		this.previewCacheSize = previewCacheSize;
+	}
+
+	/**
+	 * @return The factor by which the pages are subsampled when they are decoded
+	 *         to make their previews and measure their brightness and contrast
+	 *         (1, 2, 4, 8, or SUBSAMPLING_AUTO)
+	 */
+	public int getPreviewSubsampling()
+	{
+		return previewSubsampling;
+	}
+
+	/**
+	 * @param previewSubsampling The factor by which the pages are subsampled when
+	 *                           they are decoded to make their previews and measure
+	 *                           their brightness and contrast (1, 2, 4, 8, or
+	 *                           SUBSAMPLING_AUTO). With 1, every page is decoded at
+	 *                           full resolution when it is loaded. Otherwise, only
+	 *                           every n-th pixel of every n-th row is decoded, which
+	 *                           is much faster, and the full-resolution pages are
+	 *                           only decoded when they are requested.
+	 */
+	public void setPreviewSubsampling(int previewSubsampling)
+	{
+		if (previewSubsampling != SUBSAMPLING_AUTO && previewSubsampling != 1 && previewSubsampling != 2 && previewSubsampling != 4
+				&& previewSubsampling != 8)
+			throw new IllegalArgumentException("Unknown subsampling: " + previewSubsampling);
+		this.previewSubsampling = previewSubsampling;
+	}
+
+	/**
+	 * @return The largest acceptable uncertainty in the measured brightness and
+	 *         contrast of each page, in luma levels (0 to measure every pixel)
+	 */
+	public double getStatisticsTolerance()
+	{
+		return statisticsTolerance;
+	}
+
+	/**
+	 * @param statisticsTolerance The largest acceptable half-width of the 95%
+	 *                            confidence intervals on the brightness (mean luma)
+	 *                            and contrast (standard deviation of the luma) of
+	 *                            each page, in luma levels on the scale [0, 255].
+	 *                            If it is positive, the statistics are estimated
+	 *                            from a sample of the pixels (see
+	 *                            LumaStatistics.estimate()). If it is 0, every
+	 *                            pixel is measured.
+	 */
+	public void setStatisticsTolerance(double statisticsTolerance)
+	{
+		if (!(statisticsTolerance >= 0))
+			throw new IllegalArgumentException("The statistics tolerance must be non-negative");
+		this.statisticsTolerance = statisticsTolerance;
+	}
+
+	/**
+	 * @return The largest difference between the R, G, and B values of a pixel for
+	 *         it to count as gray, or GRAYSCALE_NEVER
+	 */
+	public int getGrayscaleTolerance()
+	{
+		return grayscaleTolerance;
+	}
+
+	/**
+	 * @param grayscaleTolerance The largest difference between the R, G, and B
+	 *                           values of a pixel for it to count as gray (in the
+	 *                           range [0, 255]), or GRAYSCALE_NEVER. Pages whose
+	 *                           pixels are all gray are stored as TYPE_BYTE_GRAY,
+	 *                           which discards their colour (including in edited
+	 *                           pages that are saved), so the tolerance should
+	 *                           not be much larger than the JPEG noise (2-4).
+	 */
+	public void setGrayscaleTolerance(int grayscaleTolerance)
+	{
+		if (grayscaleTolerance != GRAYSCALE_NEVER && (grayscaleTolerance < 0 || grayscaleTolerance > 255))
+			throw new IllegalArgumentException("The grayscale tolerance must be in the range [0, 255]");
+		this.grayscaleTolerance = grayscaleTolerance;
+	}
+
+	/**
+	 * @return Where the pixels of the original images are kept (BACKING_HEAP,
+	 *         BACKING_DIRECT, BACKING_MAPPED, or BACKING_COMPRESSED)
+	 */
+	public int getPixelBacking()
+	{
+		return pixelBacking;
+	}
+
+	/**
+	 * @param pixelBacking Where the pixels of the original images are kept
+	 *                     (BACKING_HEAP, BACKING_DIRECT, BACKING_MAPPED, or
+	 *                     BACKING_COMPRESSED)
+	 */
+	public void setPixelBacking(int pixelBacking)
+	{
+		if (pixelBacking != BACKING_HEAP && pixelBacking != BACKING_DIRECT && pixelBacking != BACKING_MAPPED
+				&& pixelBacking != BACKING_COMPRESSED)
+			throw new IllegalArgumentException("Unknown pixel backing: " + pixelBacking);
+		this.pixelBacking = pixelBacking;
+	}
+
+	/**
+	 * @return The directory in which the scratch file is created when using
+	 *         BACKING_MAPPED
+	 */
+	public File getScratchDirectory()
+	{
+		return scratchDirectory;
+	}
+
+	/**
+	 * @param scratchDirectory The directory in which the scratch file is created
+	 *                         when using BACKING_MAPPED
+	 */
+	public void setScratchDirectory(File scratchDirectory)
+	{
+		this.scratchDirectory = scratchDirectory;
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ * A 256-bin histogram of the luma of the pixels in an image. Each bin records
+ * how many pixels fall in it and the luma those pixels currently have, so the
+ * histogram can be transformed to reflect a brightness or contrast edit without
+ * looking at the pixels again. The brightness and contrast of the image are
+ * derived from the histogram.
+ *
+ * Histograms are immutable: the transformations return a new histogram.
+ *
+ * @author Louis Hildebrand
+ */
+public class LumaHistogram
+{
+	public static final int NUM_BINS = 256;
+	private static final double MAX_LUMA = 255;
+
+	private long[] counts;
+	private double[] values;
+	private long numPixels;
+	private double mean;
+	private double standardDeviation;
+
+	/**
+	 * Creates a histogram from the number of pixels in each bin and the sum of
+	 * their luma.
+	 *
+	 * @param counts    The number of pixels whose luma rounds to each bin
+	 * @param sums      The sum of the luma (scaled by lumaScale) of the pixels in
+	 *                  each bin
+	 * @param lumaScale The factor by which the sums are scaled
+	 */
+	public LumaHistogram(long[] counts, long[] sums, double lumaScale)
+	{
+		this.counts = counts.clone();
+		values = new double[NUM_BINS];
+		for (int b = 0; b < NUM_BINS; b++)
+		{
+			values[b] = (counts[b] == 0 ? b : sums[b] / lumaScale / counts[b]);
+		}
+		computeStatistics();
+	}
+
+	/**
+	 * Creates a histogram with the given counts and luma values.
+	 *
+	 * @param counts The number of pixels in each bin
+	 * @param values The luma of the pixels in each bin
+	 */
+	private LumaHistogram(long[] counts, double[] values)
+	{
+		this.counts = counts;
+		this.values = values;
+		computeStatistics();
+	}
+
+	/**
+	 * Computes the mean and standard deviation of the luma.
+	 */
+	private void computeStatistics()
+	{
+		numPixels = 0;
+		double sum = 0;
+		double sumSquared = 0;
+		for (int b = 0; b < NUM_BINS; b++)
+		{
+			numPixels += counts[b];
+			sum += counts[b] * values[b];
+			sumSquared += counts[b] * values[b] * values[b];
+		}
+
+		if (numPixels == 0)
+		{
+			mean = 0;
+			standardDeviation = 0;
+		}
+		else
+		{
+			mean = sum / numPixels;
+			standardDeviation = Math.sqrt(Math.max(sumSquared / numPixels - mean * mean, 0));
+		}
+	}
+
+	/**
+	 * @return The mean luma (i.e. the brightness), in the range [0, 255]
+	 */
+	public double getMean()
+	{
+		return mean;
+	}
+
+	/**
+	 * @return The standard deviation of the luma (i.e. the contrast)
+	 */
+	public double getStandardDeviation()
+	{
+		return standardDeviation;
+	}
+
+	/**
+	 * @return The number of pixels in the histogram
+	 */
+	public long getNumPixels()
+	{
+		return numPixels;
+	}
+
+	/**
+	 * @param bin The index of the bin, in the range [0, 255]
+	 * @return The number of pixels in the bin
+	 */
+	public long getCount(int bin)
+	{
+		return counts[bin];
+	}
+
+	/**
+	 * @param bin The index of the bin, in the range [0, 255]
+	 * @return The luma of the pixels in the bin
+	 */
+	public double getValue(int bin)
+	{
+		return values[bin];
+	}
+
+	/**
+	 * Predicts the histogram after adding the given offset to the luma of every
+	 * pixel. The luma is clipped to [0, 255], as it is for the pixels themselves.
+	 *
+	 * @param offset The amount by which to increase or decrease the luma
+	 * @return The histogram of the edited image
+	 */
+	public LumaHistogram offsetBrightness(int offset)
+	{
+		double[] newValues = new double[NUM_BINS];
+		for (int b = 0; b < NUM_BINS; b++)
+		{
+			newValues[b] = clip(values[b] + offset);
+		}
+		return new LumaHistogram(counts, newValues);
+	}
+
+	/**
+	 * Predicts the histogram after scaling the deviation of every pixel's luma
+	 * from the mean by the given factor. The luma is clipped to [0, 255], as it is
+	 * for the pixels themselves.
+	 *
+	 * @param factor The factor by which the deviation from the mean is scaled
+	 * @param mean   The mean around which to scale
+	 * @return The histogram of the edited image
+	 */
+	public LumaHistogram scaleContrast(double factor, double mean)
+	{
+		double[] newValues = new double[NUM_BINS];
+		for (int b = 0; b < NUM_BINS; b++)
+		{
+			newValues[b] = clip(mean + factor * (values[b] - mean));
+		}
+		return new LumaHistogram(counts, newValues);
+	}
+
+	/**
+	 * @param luma A luma value
+	 * @return The value clipped to the range [0, 255]
+	 */
+	private static double clip(double luma)
+	{
+		if (luma < 0)
+			return 0;
+		else if (luma > MAX_LUMA)
+			return MAX_LUMA;
+		else
+			return luma;
+	}
+}
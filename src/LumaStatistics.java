@@ -0,0 +1,350 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Measures the luma histogram of images, from which their brightness (mean
+ * luma) and contrast (standard deviation of the luma) are derived.
+ *
+ * The luma of each pixel is computed with the NTSC formula in integer
+ * arithmetic, scaled by 1000: 299*R + 587*G + 114*B. For the raster layouts
+ * produced by ImageIO (interleaved bytes, packed ints, and 8-bit grayscale), the
+ * samples are read directly from the DataBuffer. A gray sample counts as a pixel
+ * with R = G = B = sample, as it is displayed. Any other image is read through
+ * getRGB() one row at a time. The luma of rows of packed ARGB pixels is computed
+ * by PixelKernels, which uses SIMD instructions when the Vector API is available. The rows are split into bands that are measured
+ * in parallel on the common fork-join pool, and the partial histograms are
+ * merged at the end.
+ *
+ * Since the brightness of a scan varies little across the page, the histogram
+ * can also be estimated from a sample of the pixels with estimate(). The image
+ * is divided into a grid of cells and one random pixel is taken from each cell
+ * per round, until the 95% confidence intervals on both the mean and the
+ * standard deviation of the luma are narrower than a given tolerance.
+ *
+ * @author Louis Hildebrand
+ */
+public class LumaStatistics
+{
+	private static final int RED_WEIGHT = 299;
+	private static final int GREEN_WEIGHT = 587;
+	private static final int BLUE_WEIGHT = 114;
+	private static final int WEIGHT_SCALE = 1000;
+	private static final int NUM_BINS = LumaHistogram.NUM_BINS;
+	private static final int MIN_BAND_PIXELS = 1 << 18;
+	private static final int GRID_CELLS = 32;
+	private static final int MIN_SAMPLES = 4 * GRID_CELLS * GRID_CELLS;
+	private static final int MAX_SAMPLE_FRACTION = 4;
+	private static final double CONFIDENCE_Z = 1.96;
+	private static final long SAMPLE_SEED = 0x5CA9L;
+
+	/**
+	 * Measures the luma histogram of the given image. Each pixel is counted in the
+	 * bin nearest to its luma.
+	 *
+	 * @param img The image to be measured
+	 * @return The histogram of the image
+	 */
+	public static LumaHistogram measure(BufferedImage img)
+	{
+		long[] bins = ForkJoinPool.commonPool().invoke(new BandTask(img, 0, img.getHeight()));
+		long[] counts = new long[NUM_BINS];
+		long[] sums = new long[NUM_BINS];
+		System.arraycopy(bins, 0, counts, 0, NUM_BINS);
+		System.arraycopy(bins, NUM_BINS, sums, 0, NUM_BINS);
+		return new LumaHistogram(counts, sums, WEIGHT_SCALE);
+	}
+
+	/**
+	 * Estimates the luma histogram of the given image from a stratified random
+	 * sample of its pixels. Rounds of one pixel per grid cell are added until the
+	 * half-widths of the 95% confidence intervals on the mean and the standard
+	 * deviation of the luma are both at most the given tolerance. The pixels are
+	 * chosen with a fixed seed, so the same image always gives the same estimate.
+	 *
+	 * The image is measured exactly with measure() instead if the tolerance is 0,
+	 * if the image is too small for sampling to save any work, or if the
+	 * tolerance is not reached after sampling a quarter of the pixels.
+	 *
+	 * @param img       The image to be measured
+	 * @param tolerance The largest acceptable half-width of the confidence
+	 *                  intervals, in luma levels (on the scale [0, 255]), or 0 to
+	 *                  measure every pixel
+	 * @return The estimated histogram of the image
+	 */
+	public static LumaHistogram estimate(BufferedImage img, double tolerance)
+	{
+		int width = img.getWidth();
+		int height = img.getHeight();
+		long numPixels = (long) width * height;
+		if (tolerance <= 0 || width < GRID_CELLS || height < GRID_CELLS || numPixels < (long) MAX_SAMPLE_FRACTION * MIN_SAMPLES)
+			return measure(img);
+
+		Random random = new Random(SAMPLE_SEED);
+		long[] bins = new long[2 * NUM_BINS];
+		long numSamples = 0;
+		while (true)
+		{
+			for (int row = 0; row < GRID_CELLS; row++)
+			{
+				int y0 = (int) ((long) row * height / GRID_CELLS);
+				int y1 = (int) ((long) (row + 1) * height / GRID_CELLS);
+				for (int column = 0; column < GRID_CELLS; column++)
+				{
+					int x0 = (int) ((long) column * width / GRID_CELLS);
+					int x1 = (int) ((long) (column + 1) * width / GRID_CELLS);
+					int x = x0 + random.nextInt(x1 - x0);
+					int y = y0 + random.nextInt(y1 - y0);
+					count(bins, getLuma(img, x, y));
+				}
+			}
+			numSamples += GRID_CELLS * GRID_CELLS;
+
+			if (numSamples >= MIN_SAMPLES && isWithinTolerance(bins, numSamples, tolerance))
+				break;
+			if (numSamples * MAX_SAMPLE_FRACTION >= numPixels)
+				return measure(img);
+		}
+
+		long[] counts = new long[NUM_BINS];
+		long[] sums = new long[NUM_BINS];
+		System.arraycopy(bins, 0, counts, 0, NUM_BINS);
+		System.arraycopy(bins, NUM_BINS, sums, 0, NUM_BINS);
+		return new LumaHistogram(counts, sums, WEIGHT_SCALE);
+	}
+
+	/**
+	 * Checks whether a sample is large enough. The standard error of the mean is
+	 * s/sqrt(n), and the standard error of the standard deviation is taken from the
+	 * large-sample variance of the sample variance, (m4 - s^4)/n, which does not
+	 * assume that the luma is normally distributed. Each bin is represented by the
+	 * mean luma of its pixels.
+	 *
+	 * @param bins       The counts of each bin followed by the sum of the luma in
+	 *                   each bin, scaled by 1000
+	 * @param numSamples The total number of pixels in the bins
+	 * @param tolerance  The largest acceptable half-width of the confidence
+	 *                   intervals, in luma levels
+	 * @return TRUE if both confidence intervals are narrow enough and FALSE
+	 *         otherwise
+	 */
+	private static boolean isWithinTolerance(long[] bins, long numSamples, double tolerance)
+	{
+		long total = 0;
+		for (int b = 0; b < NUM_BINS; b++)
+		{
+			total += bins[NUM_BINS + b];
+		}
+		double mean = (double) total / WEIGHT_SCALE / numSamples;
+
+		double m2 = 0;
+		double m4 = 0;
+		for (int b = 0; b < NUM_BINS; b++)
+		{
+			if (bins[b] == 0)
+				continue;
+			double d = (double) bins[NUM_BINS + b] / WEIGHT_SCALE / bins[b] - mean;
+			m2 += bins[b] * d * d;
+			m4 += bins[b] * d * d * d * d;
+		}
+		m2 /= numSamples;
+		m4 /= numSamples;
+
+		double meanError = CONFIDENCE_Z * Math.sqrt(m2 / numSamples);
+		double stdError = (m2 > 0 ? CONFIDENCE_Z * Math.sqrt(Math.max(0, m4 - m2 * m2) / numSamples) / (2 * Math.sqrt(m2)) : 0);
+		return meanError <= tolerance && stdError <= tolerance;
+	}
+
+	/**
+	 * Calculates the luma of the given pixel, scaled by 1000.
+	 *
+	 * @param pixel The pixel whose luma is to be calculated (in ARGB format)
+	 * @return The luma of the pixel, in the range [0, 255000]
+	 */
+	public static int getLuma(int pixel)
+	{
+		return RED_WEIGHT * ((pixel >>> 16) & 0xFF) + GREEN_WEIGHT * ((pixel >>> 8) & 0xFF) + BLUE_WEIGHT * (pixel & 0xFF);
+	}
+
+	/**
+	 * Calculates the luma of one pixel of the given image, scaled by 1000. Gray
+	 * samples are read directly, as in countRows().
+	 *
+	 * @param img The image containing the pixel
+	 * @param x   The x coordinate of the pixel
+	 * @param y   The y coordinate of the pixel
+	 * @return The luma of the pixel, in the range [0, 255000]
+	 */
+	private static int getLuma(BufferedImage img, int x, int y)
+	{
+		if (img.getType() == BufferedImage.TYPE_BYTE_GRAY)
+			return img.getRaster().getSample(x, y, 0) * WEIGHT_SCALE;
+		return getLuma(img.getRGB(x, y));
+	}
+
+	/**
+	 * Adds a pixel with the given luma to the histogram.
+	 *
+	 * @param bins The counts of each bin followed by the sum of the luma in each bin
+	 * @param luma The luma of the pixel, scaled by 1000
+	 */
+	private static void count(long[] bins, int luma)
+	{
+		int bin = (luma + WEIGHT_SCALE / 2) / WEIGHT_SCALE;
+		bins[bin]++;
+		bins[NUM_BINS + bin] += luma;
+	}
+
+	/**
+	 * Builds the histogram of the rows [startRow, endRow) of the given image.
+	 *
+	 * @param img      The image to be measured
+	 * @param startRow The first row to include
+	 * @param endRow   One past the last row to include
+	 * @return The number of pixels in each bin followed by the sum of their luma
+	 *         (scaled by 1000) in each bin
+	 */
+	private static long[] countRows(BufferedImage img, int startRow, int endRow)
+	{
+		Raster raster = img.getRaster();
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		int width = img.getWidth();
+		int x0 = -raster.getSampleModelTranslateX();
+		int y0 = -raster.getSampleModelTranslateY();
+		long[] bins = new long[2 * NUM_BINS];
+		int luma;
+
+		switch (img.getType())
+		{
+			case BufferedImage.TYPE_3BYTE_BGR:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			{
+				ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+				byte[] data = ((DataBufferByte) dataBuffer).getData();
+				int pixelStride = sm.getPixelStride();
+				int scanlineStride = sm.getScanlineStride();
+				int[] offsets = sm.getBandOffsets();
+				int offset = dataBuffer.getOffset();
+				for (int r = startRow; r < endRow; r++)
+				{
+					int i = offset + (y0 + r) * scanlineStride + x0 * pixelStride;
+					for (int c = 0; c < width; c++, i += pixelStride)
+					{
+						luma = RED_WEIGHT * (data[i + offsets[0]] & 0xFF) + GREEN_WEIGHT * (data[i + offsets[1]] & 0xFF)
+								+ BLUE_WEIGHT * (data[i + offsets[2]] & 0xFF);
+						count(bins, luma);
+					}
+				}
+				break;
+			}
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+			{
+				SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+				int[] data = ((DataBufferInt) dataBuffer).getData();
+				int scanlineStride = sm.getScanlineStride();
+				int offset = dataBuffer.getOffset();
+				int[] rowLuma = new int[width];
+				PixelKernels kernels = PixelKernels.getInstance();
+				for (int r = startRow; r < endRow; r++)
+				{
+					kernels.computeLuma(data, offset + (y0 + r) * scanlineStride + x0, width, rowLuma);
+					for (int c = 0; c < width; c++)
+					{
+						count(bins, rowLuma[c]);
+					}
+				}
+				break;
+			}
+			case BufferedImage.TYPE_BYTE_GRAY:
+			{
+				// Gray samples are display values (see GrayscaleConverter), so each one has the luma of a pixel with
+				// R = G = B = sample
+				ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+				byte[] data = ((DataBufferByte) dataBuffer).getData();
+				int scanlineStride = sm.getScanlineStride();
+				int offset = dataBuffer.getOffset() + sm.getBandOffsets()[0];
+				for (int r = startRow; r < endRow; r++)
+				{
+					int i = offset + (y0 + r) * scanlineStride + x0;
+					for (int c = 0; c < width; c++, i++)
+					{
+						luma = (data[i] & 0xFF) * WEIGHT_SCALE;
+						count(bins, luma);
+					}
+				}
+				break;
+			}
+			default:
+			{
+				int[] row = new int[width];
+				int[] rowLuma = new int[width];
+				PixelKernels kernels = PixelKernels.getInstance();
+				for (int r = startRow; r < endRow; r++)
+				{
+					img.getRGB(0, r, width, 1, row, 0, width);
+					kernels.computeLuma(row, 0, width, rowLuma);
+					for (int c = 0; c < width; c++)
+					{
+						count(bins, rowLuma[c]);
+					}
+				}
+				break;
+			}
+		}
+
+		return bins;
+	}
+
+	/**
+	 * Builds the histogram of a band of rows, splitting it in two until each band
+	 * is small enough to be measured on one thread.
+	 */
+	private static class BandTask extends RecursiveTask<long[]>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private BufferedImage img;
+		private int startRow;
+		private int endRow;
+
+		/**
+		 * @param img      The image to be measured
+		 * @param startRow The first row in the band
+		 * @param endRow   One past the last row in the band
+		 */
+		public BandTask(BufferedImage img, int startRow, int endRow)
+		{
+			this.img = img;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		protected long[] compute()
+		{
+			int numRows = endRow - startRow;
+			if (numRows < 2 || (long) numRows * img.getWidth() <= MIN_BAND_PIXELS)
+				return countRows(img, startRow, endRow);
+
+			int midRow = startRow + numRows / 2;
+			BandTask top = new BandTask(img, startRow, midRow);
+			BandTask bottom = new BandTask(img, midRow, endRow);
+			top.fork();
+			long[] bins = bottom.compute();
+			long[] topBins = top.join();
+			for (int i = 0; i < bins.length; i++)
+			{
+				bins[i] += topBins[i];
+			}
+			return bins;
+		}
+	}
+}
@@ -0,0 +1,211 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * Stores the pixels of decoded pages outside the Java heap, either in direct
+ * buffers or in a memory-mapped scratch file. Images are only rebuilt on the
+ * heap when get() is called, so the garbage collector never has to scan or move
+ * the stored rasters.
+ *
+ * Images of type TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR, TYPE_BYTE_GRAY, TYPE_INT_RGB,
+ * and TYPE_INT_ARGB are stored exactly as they are laid out in memory. Images
+ * of any other type are converted to TYPE_INT_ARGB.
+ *
+ * @author Louis Hildebrand
+ */
+public class OffHeapPixelStore
+{
+	private HashMap<File, ByteBuffer> buffers;
+	private HashMap<File, int[]> formats;
+	private File scratchFile;
+	private RandomAccessFile scratch;
+	private long scratchEnd;
+
+	/**
+	 * Creates an empty store. If a scratch directory is given, the pixels are kept
+	 * in a memory-mapped file in that directory, which is deleted by close().
+	 * Otherwise, the pixels are kept in direct buffers.
+	 *
+	 * @param scratchDirectory The directory in which to create the scratch file, or
+	 *                         NULL to use direct buffers
+	 * @throws IOException If the scratch file could not be created
+	 */
+	public OffHeapPixelStore(File scratchDirectory) throws IOException
+	{
+		buffers = new HashMap<File, ByteBuffer>();
+		formats = new HashMap<File, int[]>();
+		if (scratchDirectory != null)
+		{
+			scratchFile = File.createTempFile("scan_processor_", ".pixels", scratchDirectory);
+			scratchFile.deleteOnExit();
+			scratch = new RandomAccessFile(scratchFile, "rw");
+			scratchEnd = 0;
+		}
+	}
+
+	/**
+	 * Copies the pixels of the given image into the store, replacing any pixels
+	 * previously stored for the same page.
+	 *
+	 * @param page The page to which the image belongs
+	 * @param img  The image to be stored
+	 * @throws IOException If the scratch file could not be extended
+	 */
+	public void put(File page, BufferedImage img) throws IOException
+	{
+		int type = getStoredType(img.getType());
+		if (type != img.getType())
+		{
+			// Convert through getRGB() so that the stored pixels match what the rest of the program reads from the original
+			int width = img.getWidth();
+			int height = img.getHeight();
+			BufferedImage converted = new BufferedImage(width, height, type);
+			converted.setRGB(0, 0, width, height, img.getRGB(0, 0, width, height, null, 0, width), 0, width);
+			img = converted;
+		}
+
+		DataBuffer data = img.getRaster().getDataBuffer();
+		ByteBuffer buffer;
+		if (data instanceof DataBufferInt)
+		{
+			int[] pixels = ((DataBufferInt) data).getData();
+			buffer = allocate((long) pixels.length * Integer.BYTES);
+			buffer.asIntBuffer().put(pixels);
+		}
+		else
+		{
+			byte[] pixels = ((DataBufferByte) data).getData();
+			buffer = allocate(pixels.length);
+			buffer.put(pixels);
+			buffer.rewind();
+		}
+
+		synchronized (this)
+		{
+			buffers.put(page, buffer);
+			formats.put(page, new int[] { img.getWidth(), img.getHeight(), type });
+		}
+	}
+
+	/**
+	 * Rebuilds the stored image on the heap.
+	 *
+	 * @param page The page whose image is wanted
+	 * @return A new image with the stored pixels, or NULL if nothing is stored for
+	 *         the page
+	 */
+	public BufferedImage get(File page)
+	{
+		ByteBuffer buffer;
+		int[] format;
+		synchronized (this)
+		{
+			buffer = buffers.get(page);
+			format = formats.get(page);
+		}
+		if (buffer == null)
+			return null;
+
+		BufferedImage img = new BufferedImage(format[0], format[1], format[2]);
+		DataBuffer data = img.getRaster().getDataBuffer();
+		// Use a duplicate so that concurrent reads do not share a position
+		buffer = buffer.duplicate().order(ByteOrder.nativeOrder());
+		if (data instanceof DataBufferInt)
+			buffer.asIntBuffer().get(((DataBufferInt) data).getData());
+		else
+			buffer.get(((DataBufferByte) data).getData());
+		return img;
+	}
+
+	/**
+	 * Discards the pixels stored for the given page. When using a scratch file, the
+	 * space is not reclaimed until the store is closed.
+	 *
+	 * @param page The page to be removed
+	 */
+	public synchronized void remove(File page)
+	{
+		buffers.remove(page);
+		formats.remove(page);
+	}
+
+	/**
+	 * Discards all stored pixels and deletes the scratch file, if any. The store
+	 * must not be used afterwards.
+	 */
+	public synchronized void close()
+	{
+		buffers.clear();
+		formats.clear();
+		if (scratch != null)
+		{
+			try
+			{
+				scratch.close();
+			}
+			catch (IOException e)
+			{
+			}
+			// On some platforms the file cannot be deleted until the mappings are garbage collected, in which case it is
+			// deleted on exit instead
+			scratchFile.delete();
+			scratch = null;
+		}
+	}
+
+	/**
+	 * Allocates a buffer of the given size, either directly or in the scratch file.
+	 *
+	 * @param size The number of bytes needed
+	 * @return A buffer in native byte order with its position set to 0
+	 * @throws IOException If the scratch file could not be extended
+	 */
+	private ByteBuffer allocate(long size) throws IOException
+	{
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("The page is too large to be stored off-heap");
+
+		if (scratchFile == null)
+			return ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder());
+
+		long position;
+		FileChannel channel;
+		synchronized (this)
+		{
+			if (scratch == null)
+				throw new IOException("The pixel store has been closed");
+			position = scratchEnd;
+			scratchEnd += size;
+			channel = scratch.getChannel();
+		}
+		return channel.map(FileChannel.MapMode.READ_WRITE, position, size).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * @param type The type of an image to be stored
+	 * @return The type in which the image is stored
+	 */
+	private static int getStoredType(int type)
+	{
+		switch (type)
+		{
+			case BufferedImage.TYPE_3BYTE_BGR:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			case BufferedImage.TYPE_BYTE_GRAY:
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+				return type;
+			default:
+				return BufferedImage.TYPE_INT_ARGB;
+		}
+	}
+}
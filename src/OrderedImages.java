@@ -2,11 +2,28 @@ import java.awt.Component;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JFrame;
@@ -20,36 +37,106 @@ import javax.swing.SwingUtilities;
  * and contrast, for getting and deleting images, and for checking whether the
  * images have been edited.
  * 
+ * Edits are non-destructive: only the brightness and contrast requested for each
+ * page are stored, and the edited image is rendered from the original in a
+ * single pass when it is requested. Rounding and clipping therefore never
+ * accumulate from one edit to the next, and resetting the edits is free.
+ * 
+ * A preview of every page, scaled to fit in ScanProcessor.MAX_IMG_WIDTH by
+ * ScanProcessor.MAX_IMG_HEIGHT, is made when the page is loaded. Only a limited
+ * number of these previews are kept, and the others are made again from their
+ * pages (at the same reduced resolution, if any) when they are next needed.
+ * Edits are rendered on these previews for display, so changing the brightness or
+ * contrast only costs a few milliseconds. Full-resolution pages are only
+ * rendered when get() is called, e.g. to save the pages or convert them to PDF.
+ * Edited previews are cached until that page's edits change, as tracked by its
+ * generation (see getGeneration()), so paging back and forth through a batch
+ * does not render anything again.
+ * 
+ * Only a limited number of pages are kept in memory at once. The remaining pages
+ * are decoded from their files (or copied from an off-heap store, or decoded from
+ * the compressed contents of their files kept in memory, depending on the
+ * LoadOptions) when they are requested. The modification time of each file is
+ * recorded when it is loaded, so that a page whose file has been changed by
+ * another program is not silently taken as its original.
+ * 
+ * The LoadOptions can also ask for the pages to be decoded at a reduced
+ * resolution when they are loaded, since the previews and the brightness and
+ * contrast estimates do not need every pixel. In that case, the full-resolution
+ * pages are only decoded when they are first requested.
+ * 
+ * Pages whose pixels are all gray can also be stored as TYPE_BYTE_GRAY, which
+ * takes a quarter of the memory of a packed RGB image. This is decided on the
+ * image as it is decoded, at full or reduced resolution. The statistics,
+ * previews (which ImageScaler keeps gray), and edits of gray images are then
+ * computed on the single channel directly.
+ * 
  * @author Louis Hildebrand
  */
 public class OrderedImages
 {
-	private static double RED_WEIGHT = 0.299;
-	private static double GREEN_WEIGHT = 0.587;
-	private static double BLUE_WEIGHT = 0.114;
 	private static double MIN_BRIGHTNESS = 0.25;
 	private static double MAX_BRIGHTNESS = 1.15;
 	private static double MIN_CONTRAST = 0.5;
 	private static double MAX_CONTRAST = 3;
+	private static final int MAX_SUBSAMPLING = 8;
+	public static final int DEFAULT_CACHE_SIZE = 8;
+	public static final int DEFAULT_PREVIEW_CACHE_SIZE = 64;
 
-	private ArrayList<BufferedImage> originalImages;
-	private ArrayList<BufferedImage> editedImages;
-	private ArrayList<Double> initBrightness;
-	private ArrayList<Double> initContrast;
-	private ArrayList<Double> currentBrightness;
-	private ArrayList<Double> currentContrast;
+	private ArrayList<File> pageFiles;
+	private LRUCache<File, BufferedImage> originalImages;
+	private LRUCache<File, BufferedImage> editedImages;
+	private LRUCache<File, BufferedImage> originalPreviews;
+	private LRUCache<File, BufferedImage> editedPreviews;
+	private OffHeapPixelStore pixelStore;
+	private HashMap<File, byte[]> compressedOriginals;
+	private HashMap<File, Long> modificationTimes;
+	private ArrayList<Integer> brightnessEdits;
+	private ArrayList<Integer> contrastEdits;
+	private ArrayList<LumaHistogram> initHistograms;
+	private ArrayList<LumaHistogram> currentHistograms;
+	private double statisticsTolerance;
+	private int grayscaleTolerance;
+	private int previewSubsampling;
 	private boolean edited;
+	private HashMap<File, Long> generations;
+	private long lastGeneration;
 
 	/**
-	 * Instantiates the list of images, measuring their brightness and contrast and
-	 * saving it in the appropriate lists. This method is slow and places a task on
+	 * Instantiates the list of images, measuring their luma histograms (from which
+	 * their brightness and contrast are derived) and saving them in the appropriate
+	 * lists. This method is slow and places a task on
 	 * the EDT, so it must not be called from the EDT itself.
 	 * 
+	 * The pages are decoded and measured in parallel on the common fork-join pool,
+	 * which also measures the bands of each page (see LumaStatistics), so the
+	 * pages and their bands share the same threads. The pages are always stored in
+	 * the same order as pageFiles. If any page cannot be read, all remaining work
+	 * is cancelled and the exception is thrown without any page having been added
+	 * to the list.
+	 * 
+	 * The default LoadOptions are used, so at most DEFAULT_CACHE_SIZE original and
+	 * DEFAULT_CACHE_SIZE edited images are kept in memory.
+	 * 
 	 * @param pageFiles Files containing the images to be saved
 	 * @param frame     The JFrame on which to center the progress bar
 	 * @throws IOException
 	 */
 	public OrderedImages(ArrayList<File> pageFiles, JFrame frame) throws IOException
+	{
+		this(pageFiles, frame, new LoadOptions());
+	}
+
+	/**
+	 * Instantiates the list of images as described in OrderedImages(ArrayList,
+	 * JFrame), but stores the pages as specified by the given options.
+	 * 
+	 * @param pageFiles Files containing the images to be saved
+	 * @param frame     The JFrame on which to center the progress bar
+	 * @param options   The cache sizes, pixel backing, and subsampling to use
+	 * @throws IOException
+	 */
+	public OrderedImages(ArrayList<File> pageFiles, JFrame frame, LoadOptions options) throws IOException
 	{
 		// Set up progress bar
 		JFrame progressFrame = new JFrame();
@@ -87,31 +174,262 @@ public class OrderedImages
 		{
 		}
 
-		originalImages = new ArrayList<BufferedImage>();
-		editedImages = new ArrayList<BufferedImage>();
-		initBrightness = new ArrayList<Double>();
-		initContrast = new ArrayList<Double>();
-		currentBrightness = new ArrayList<Double>();
-		currentContrast = new ArrayList<Double>();
+		this.pageFiles = new ArrayList<File>(pageFiles);
+		int cacheSize = options.getCacheSize();
+		originalImages = new LRUCache<File, BufferedImage>(cacheSize);
+		editedImages = new LRUCache<File, BufferedImage>(cacheSize);
+		originalPreviews = new LRUCache<File, BufferedImage>(options.getPreviewCacheSize());
+		editedPreviews = new LRUCache<File, BufferedImage>(options.getPreviewCacheSize());
+		generations = new HashMap<File, Long>();
+		lastGeneration = 0;
+		if (options.getPixelBacking() == LoadOptions.BACKING_DIRECT)
+			pixelStore = new OffHeapPixelStore(null);
+		else if (options.getPixelBacking() == LoadOptions.BACKING_MAPPED)
+			pixelStore = new OffHeapPixelStore(options.getScratchDirectory());
+		else if (options.getPixelBacking() == LoadOptions.BACKING_COMPRESSED)
+			compressedOriginals = new HashMap<File, byte[]>();
+		modificationTimes = new HashMap<File, Long>();
+		brightnessEdits = new ArrayList<Integer>();
+		contrastEdits = new ArrayList<Integer>();
+		initHistograms = new ArrayList<LumaHistogram>();
+		currentHistograms = new ArrayList<LumaHistogram>();
+		statisticsTolerance = options.getStatisticsTolerance();
+		grayscaleTolerance = options.getGrayscaleTolerance();
+		previewSubsampling = options.getPreviewSubsampling();
 		edited = false;
 
-		for (int i = 0; i < pageFiles.size(); i++)
+		// Decode and measure the pages in parallel. Each task writes its results at its own index so that the page order is
+		// preserved regardless of the order in which the tasks finish. Only the first pages are kept in memory (the originals
+		// only if they were decoded at full resolution and are not kept compressed).
+		int numPages = pageFiles.size();
+		int subsampling = options.getPreviewSubsampling();
+		boolean keepDecoded = (subsampling == 1 && compressedOriginals == null);
+		BufferedImage[] loadedOriginals = new BufferedImage[(keepDecoded ? Math.min(numPages, cacheSize) : 0)];
+		byte[][] loadedData = new byte[numPages][];
+		long[] loadedModificationTimes = new long[numPages];
+		LumaHistogram[] loadedHistograms = new LumaHistogram[numPages];
+		BufferedImage[] loadedPreviews = new BufferedImage[Math.min(numPages, originalPreviews.getCapacity())];
+		AtomicInteger numLoaded = new AtomicInteger(0);
+		CompletionService<Void> completionService = new ExecutorCompletionService<Void>(ForkJoinPool.commonPool());
+		ArrayList<Future<Void>> tasks = new ArrayList<Future<Void>>();
+		for (int i = 0; i < numPages; i++)
+		{
+			int pageIndex = i;
+			tasks.add(completionService.submit(new Callable<Void>()
+			{
+				public Void call() throws IOException
+				{
+					File file = pageFiles.get(pageIndex);
+					// Record the time first so that a change made while the file is being read is detected later
+					loadedModificationTimes[pageIndex] = file.lastModified();
+					byte[] data = null;
+					if (compressedOriginals != null)
+					{
+						data = Files.readAllBytes(file.toPath());
+						loadedData[pageIndex] = data;
+					}
+					BufferedImage img = decode(file, data, subsampling);
+					if (pixelStore != null && subsampling == 1)
+						pixelStore.put(pageFiles.get(pageIndex), img);
+					if (pageIndex < loadedOriginals.length)
+						loadedOriginals[pageIndex] = img;
+					loadedHistograms[pageIndex] = getHistogram(img);
+					if (pageIndex < loadedPreviews.length)
+						loadedPreviews[pageIndex] = makePreview(img);
+
+					numLoaded.incrementAndGet();
+					SwingUtilities.invokeLater(new Runnable()
+					{
+						public void run()
+						{
+							// Read the counter instead of capturing it since the updates from different workers may arrive out of order
+							int done = numLoaded.get();
+							progressBar.setValue(done);
+							progressBar.setString(done + "/" + numPages);
+						}
+					});
+					return null;
+				}
+			}));
+		}
+
+		// Wait for every page, stopping all remaining work as soon as one of them fails
+		try
+		{
+			for (int i = 0; i < numPages; i++)
+			{
+				completionService.take().get();
+			}
+		}
+		catch (ExecutionException e)
+		{
+			cancelAll(tasks);
+			progressFrame.dispose();
+			close();
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			else if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			else if (cause instanceof Error)
+				throw (Error) cause;
+			else
+				throw new IOException(cause);
+		}
+		catch (InterruptedException e)
+		{
+			cancelAll(tasks);
+			progressFrame.dispose();
+			close();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Loading was interrupted");
+		}
+
+		// Only fill the lists once every page has been loaded successfully
+		for (int i = 0; i < numPages; i++)
 		{
-			BufferedImage img = ImageIO.read(pageFiles.get(i));
-			originalImages.add(img);
-			editedImages.add(copyImage(img));
-			double[] properties = getImageProperties(img);
-			initBrightness.add(properties[0]);
-			currentBrightness.add(properties[0]);
-			initContrast.add(properties[1]);
-			currentContrast.add(properties[1]);
-			progressBar.setValue(i + 1);
-			progressBar.setString((i + 1) + "/" + pageFiles.size());
+			if (i < loadedOriginals.length)
+				originalImages.put(pageFiles.get(i), loadedOriginals[i]);
+			brightnessEdits.add(0);
+			contrastEdits.add(0);
+			initHistograms.add(loadedHistograms[i]);
+			currentHistograms.add(loadedHistograms[i]);
+			if (i < loadedPreviews.length)
+				originalPreviews.put(pageFiles.get(i), loadedPreviews[i]);
+			generations.put(pageFiles.get(i), ++lastGeneration);
+			modificationTimes.put(pageFiles.get(i), loadedModificationTimes[i]);
+			if (compressedOriginals != null)
+				compressedOriginals.put(pageFiles.get(i), loadedData[i]);
 		}
 
 		progressFrame.dispose();
 	}
 
+	/**
+	 * Cancels the loading tasks that have not started yet. The tasks that are
+	 * running are left to finish, since the common pool is shared with the rest of
+	 * the program and its threads must not be interrupted.
+	 * 
+	 * @param tasks The tasks submitted by the constructor
+	 */
+	private static void cancelAll(ArrayList<Future<Void>> tasks)
+	{
+		for (Future<Void> task : tasks)
+		{
+			task.cancel(false);
+		}
+	}
+
+	/**
+	 * Decodes the image of a page as described in readPage(). If the LoadOptions
+	 * allow it and every decoded pixel is gray, the image is converted to
+	 * TYPE_BYTE_GRAY to save memory (see GrayscaleConverter). This is done at
+	 * reduced resolutions too, so that the statistics and previews of gray pages
+	 * are computed on the single channel. Only the decoded pixels are checked, so
+	 * a page decoded at a reduced resolution may be taken as gray while its
+	 * full-resolution image is not; the luma, and therefore the statistics, is
+	 * the same either way.
+	 * 
+	 * @param file        The file of the page
+	 * @param data        The compressed contents of the file, or NULL to read the
+	 *                    file itself
+	 * @param subsampling The subsampling factor (see readPage())
+	 * @return The decoded image
+	 * @throws IOException If the file could not be read or does not contain a
+	 *                     supported image
+	 */
+	private BufferedImage decode(File file, byte[] data, int subsampling) throws IOException
+	{
+		BufferedImage img = readPage(file, data, subsampling);
+		if (grayscaleTolerance != LoadOptions.GRAYSCALE_NEVER)
+		{
+			BufferedImage gray = GrayscaleConverter.toGray(img, grayscaleTolerance);
+			if (gray != null)
+				return gray;
+		}
+		return img;
+	}
+
+	/**
+	 * Decodes the image of a page, possibly at a reduced resolution, keeping only
+	 * every n-th pixel of every n-th row.
+	 * 
+	 * @param file        The file of the page
+	 * @param data        The compressed contents of the file, or NULL to read the
+	 *                    file itself
+	 * @param subsampling The subsampling factor n (1 for the full resolution), or
+	 *                    LoadOptions.SUBSAMPLING_AUTO to choose it from the size of
+	 *                    the image
+	 * @return The decoded image
+	 * @throws IOException If the file could not be read or does not contain a
+	 *                     supported image
+	 */
+	private static BufferedImage readPage(File file, byte[] data, int subsampling) throws IOException
+	{
+		if (data == null && !file.canRead())
+			throw new IOException("Cannot read " + file.getAbsolutePath());
+
+		// Keep the contents in memory rather than letting ImageIO copy them to a cache file
+		try (ImageInputStream input = (data != null ? new MemoryCacheImageInputStream(new ByteArrayInputStream(data))
+				: ImageIO.createImageInputStream(file)))
+		{
+			Iterator<ImageReader> readers = (input == null ? null : ImageIO.getImageReaders(input));
+			if (readers == null || !readers.hasNext())
+				throw new IOException("No image could be decoded from " + file.getAbsolutePath());
+
+			ImageReader reader = readers.next();
+			try
+			{
+				reader.setInput(input, true, true);
+				if (subsampling == LoadOptions.SUBSAMPLING_AUTO)
+					subsampling = getAutoSubsampling(reader.getWidth(0), reader.getHeight(0));
+				ImageReadParam param = reader.getDefaultReadParam();
+				if (subsampling > 1)
+					param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return reader.read(0, param);
+			}
+			finally
+			{
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Chooses the largest subsampling factor (a power of 2, at most
+	 * MAX_SUBSAMPLING) for which an image of the given size is still at least twice
+	 * the size of its preview, so that the preview is as sharp as one made from
+	 * the full-resolution image.
+	 * 
+	 * @param width  The width of the full-resolution image
+	 * @param height The height of the full-resolution image
+	 * @return The subsampling factor
+	 */
+	private static int getAutoSubsampling(int width, int height)
+	{
+		double previewScale = Math.min((double) ScanProcessor.MAX_IMG_WIDTH / width, (double) ScanProcessor.MAX_IMG_HEIGHT / height);
+		int subsampling = 1;
+		while (subsampling < MAX_SUBSAMPLING && 4 * subsampling * previewScale <= 1)
+		{
+			subsampling *= 2;
+		}
+		return subsampling;
+	}
+
+	/**
+	 * Scales the given image down to fit in ScanProcessor.MAX_IMG_WIDTH by
+	 * ScanProcessor.MAX_IMG_HEIGHT, keeping its aspect ratio.
+	 * 
+	 * @param img The full-resolution image
+	 * @return The preview, in TYPE_BYTE_GRAY if the image is gray and otherwise in
+	 *         TYPE_INT_RGB (or TYPE_INT_ARGB if the image has alpha), so that edits
+	 *         can be rendered on it quickly
+	 */
+	private static BufferedImage makePreview(BufferedImage img)
+	{
+		return ImageScaler.scaleToFit(img, ScanProcessor.MAX_IMG_WIDTH, ScanProcessor.MAX_IMG_HEIGHT, ImageScaler.QUALITY_BICUBIC);
+	}
+
 	/**
 	 * Creates a deep copy of the given image. Written by Klark:
 	 * https://stackoverflow.com/a/3514297/12314816
@@ -164,452 +482,633 @@ public class OrderedImages
 	}
 
 	/**
-	 * Measures the brightness and contrast of the given image. Image brightness is
-	 * taken to be the mean of the brightness of all pixels in the image, while
-	 * image contrast is taken to be the standard deviation of the pixel
-	 * brightnesses.
+	 * Measures the luma histogram of the given image. Image brightness is taken to
+	 * be the mean of the brightness of all pixels in the image, while image
+	 * contrast is taken to be the standard deviation of the pixel brightnesses.
+	 * Both are derived from the histogram. Depending on the LoadOptions, the
+	 * histogram is either measured from every pixel or estimated from a sample.
+	 * See LumaStatistics for details.
 	 * 
 	 * @param img The image in which to measure brightness and contrast
-	 * @return An array whose first element is the brightness and whose second
-	 *         element is the contrast
+	 * @return The luma histogram of the image
 	 */
-	private double[] getImageProperties(BufferedImage img)
+	private LumaHistogram getHistogram(BufferedImage img)
 	{
-		int width = img.getWidth();
-		int height = img.getHeight();
-		double currentBrightness;
-		double sumBrightness = 0;
-		double sumBrightnessSquared = 0;
+		return LumaStatistics.estimate(img, statisticsTolerance);
+	}
 
-		for (int r = 0; r < height; r++)
+	/**
+	 * Sets the brightness of all images. Only the edit parameters are recorded, so
+	 * this method is fast; the pages are rendered when they are requested.
+	 * 
+	 * @param brightness The desired brightness (in the range [-100, 100],
+	 *                   representing a change relative to the current value)
+	 */
+	public synchronized void setBrightness(int brightness)
+	{
+		edited = true;
+		for (int i = 0; i < pageFiles.size(); i++)
 		{
-			for (int c = 0; c < width; c++)
-			{
-				currentBrightness = getPixelBrightness(img.getRGB(c, r));
-				sumBrightness += currentBrightness;
-				sumBrightnessSquared += currentBrightness * currentBrightness;
-			}
+			setImageBrightness(i, brightness);
 		}
-
-		double mean = sumBrightness / (width * height);
-		double variance = sumBrightnessSquared / (width * height) - mean * mean;
-		return new double[] { mean, Math.sqrt(variance) };
 	}
 
 	/**
-	 * Calculates the brightness of the given pixel using the NTSC formula: Y =
-	 * 0.299*R + 0.587*G + 0.114*B
+	 * Records the brightness requested for the given image. The edited image and
+	 * preview are discarded if they are in memory, and the image's histogram is transformed to predict the resulting brightness and
+	 * contrast. See render() for how the edit is applied.
 	 * 
-	 * @param pixel The pixel whose brightness is to be calculated (in ARGB format)
-	 * @return The brightness of the pixel, in the range [0, 255]
+	 * @param imgIndex   The index of the image to be modified
+	 * @param brightness The desired brightness (in the range [-100, 100],
+	 *                   representing a change relative to the default value)
 	 */
-	private double getPixelBrightness(int pixel)
+	private void setImageBrightness(int imgIndex, int brightness)
 	{
-		int r = (pixel >>> 16) & 0xFF;
-		int g = (pixel >>> 8) & 0xFF;
-		int b = pixel & 0xFF;
-
-		return RED_WEIGHT * r + GREEN_WEIGHT * g + BLUE_WEIGHT * b;
+		if (brightnessEdits.get(imgIndex) == brightness)
+			return;
+		brightnessEdits.set(imgIndex, brightness);
+		updateEditedImage(imgIndex);
 	}
 
 	/**
-	 * Sets the brightness of all images.
+	 * Sets the contrast of all images. Only the edit parameters are recorded, so
+	 * this method is fast; the pages are rendered when they are requested.
 	 * 
-	 * @param brightness The desired brightness (in the range [-100, 100],
-	 *                   representing a change relative to the current value)
-	 * @param frame      The window on which to center the progress bar
+	 * @param contrast The desired contrast (in the range [-100, 100], representing
+	 *                 a change relative to the current value)
 	 */
-	public void setBrightness(int brightness, JFrame frame)
+	public synchronized void setContrast(int contrast)
 	{
-		// Set up progress bar
-		JFrame progressFrame = new JFrame();
-		JProgressBar progressBar = new JProgressBar(0, editedImages.size());
-		try
-		{
-			SwingUtilities.invokeAndWait(new Runnable()
-			{
-				public void run()
-				{
-					progressFrame.setSize(250, 75);
-					progressFrame.setLocationRelativeTo(frame);
-					progressFrame.setUndecorated(true);
-					progressFrame.setResizable(false);
-					progressFrame.setResizable(false);
-					JPanel progressPanel = new JPanel();
-					progressPanel.setLayout(new BoxLayout(progressPanel, BoxLayout.PAGE_AXIS));
-					progressFrame.add(progressPanel);
-					progressPanel.add(Box.createVerticalGlue());
-					JLabel msg = new JLabel("Setting brightness to " + brightness + "...");
-					msg.setAlignmentX(Component.CENTER_ALIGNMENT);
-					msg.setFont(ScanProcessor.TEXT_FONT);
-					progressPanel.add(msg);
-					progressBar.setFont(ScanProcessor.TEXT_FONT);
-					progressBar.setValue(0);
-					progressBar.setString("0/" + editedImages.size());
-					progressBar.setStringPainted(true);
-					progressPanel.add(progressBar);
-					progressPanel.add(Box.createVerticalGlue());
-					progressFrame.setVisible(true);
-				}
-			});
-		}
-		catch (InvocationTargetException | InterruptedException e)
-		{
-		}
-
 		edited = true;
-		int adjustedBrightness;
-		for (int i = 0; i < editedImages.size(); i++)
+		for (int i = 0; i < pageFiles.size(); i++)
 		{
-			// Map the brightness from [-100, 100] to [min * initial brightness, max * initial brightness],
-			// with 0 being the initial value
-			adjustedBrightness = piecewiseLinearMap(brightness, -100, 100, MIN_BRIGHTNESS * initBrightness.get(i),
-					MAX_BRIGHTNESS * initBrightness.get(i), initBrightness.get(i));
-			setImageBrightness(i, adjustedBrightness);
-			progressBar.setValue(i + 1);
-			progressBar.setString((i + 1) + "/" + editedImages.size());
+			setImageContrast(i, contrast);
 		}
+	}
 
-		progressFrame.dispose();
+	/**
+	 * Records the contrast requested for the given image. The edited image and
+	 * preview are discarded if they are in memory, and the image's histogram is transformed to predict the resulting brightness and
+	 * contrast. See render() for how the edit is applied.
+	 * 
+	 * @param imgIndex The index of the image to be modified
+	 * @param contrast The desired contrast (in the range [-100, 100], representing
+	 *                 a change relative to the default value)
+	 */
+	private void setImageContrast(int imgIndex, int contrast)
+	{
+		if (contrastEdits.get(imgIndex) == contrast)
+			return;
+		contrastEdits.set(imgIndex, contrast);
+		updateEditedImage(imgIndex);
 	}
 
 	/**
-	 * Attempts to set the given image's brightness to the specified value. This is
-	 * achieved by adding a constant offset to the brightness of each pixel in the
-	 * image. The new brightness should be in the range [0, 255], but this is not
-	 * strictly enforced. The actual resulting brightness may not be exactly as
-	 * desired due to limits on the brightness of individual pixels, and this method
-	 * does not work well for colour images.
+	 * Updates the predicted histogram of the given image after its edit parameters
+	 * have changed, and discards the edited image and preview if they are in
+	 * memory.
 	 * 
-	 * @param imgIndex      The index of the image to be modified
-	 * @param newBrightness The desired new brightness
+	 * @param imgIndex The index of the image whose parameters have changed
 	 */
-	private void setImageBrightness(int imgIndex, int newBrightness)
+	private void updateEditedImage(int imgIndex)
 	{
-		BufferedImage img = editedImages.get(imgIndex);
-		double oldBrightness = currentBrightness.get(imgIndex);
-		int offset = (int) Math.round(newBrightness - oldBrightness);
-		int newPixel;
+		double[] adjustment = getAdjustment(imgIndex);
+		currentHistograms.set(imgIndex,
+				initHistograms.get(imgIndex).offsetBrightness((int) adjustment[0]).scaleContrast(adjustment[1], adjustment[2]));
 
-		for (int r = 0; r < img.getHeight(); r++)
-		{
-			for (int c = 0; c < img.getWidth(); c++)
-			{
-				newPixel = offsetPixelBrightness(img.getRGB(c, r), offset);
-				img.setRGB(c, r, newPixel);
-			}
-		}
+		File file = pageFiles.get(imgIndex);
+		generations.put(file, ++lastGeneration);
+		editedImages.remove(file);
+		editedPreviews.remove(file);
+	}
 
-		currentBrightness.set(imgIndex, (double) newBrightness);
+	/**
+	 * Works out the adjustment that gives the image the brightness and contrast
+	 * requested for it. The brightness is mapped from [-100, 100] to [min * default
+	 * brightness, max * default brightness] and reached by offsetting the
+	 * brightness of every pixel. The contrast is then mapped from [-100, 100] to
+	 * [min * default contrast, max * default contrast] and reached by scaling the
+	 * deviation of every pixel from the mean of the offset image. In both cases, 0
+	 * leaves the value unchanged. The actual resulting values may not be exactly as
+	 * desired due to limits on the brightness of individual pixels, and the
+	 * adjustment does not work well for colour images.
+	 * 
+	 * @param imgIndex The index of the image
+	 * @return {offset, factor, mean}, as expected by PixelLookupTable.forEdit()
+	 */
+	private double[] getAdjustment(int imgIndex)
+	{
+		return getAdjustment(imgIndex, brightnessEdits.get(imgIndex), contrastEdits.get(imgIndex));
 	}
 
 	/**
-	 * Modifies the given pixel such that the new brightness is increased (for
-	 * positive values) or decreased (for negative values) by the specified offset.
-	 * The method attempts to preserve the R:G:B ratio, but will strictly limit each
-	 * value to the range [0, 255]. The alpha value is not changed.
+	 * Works out the adjustment that gives the image the given brightness and
+	 * contrast, as described in getAdjustment(int).
 	 * 
-	 * @param pixel  The pixel to be modified (in ARGB format)
-	 * @param offset The amount by which to increase or decrease the pixel's
-	 *               brightness
-	 * @return A new ARGB pixel with the desired brightness
+	 * @param imgIndex   The index of the image
+	 * @param brightness The brightness (in the range [-100, 100])
+	 * @param contrast   The contrast (in the range [-100, 100])
+	 * @return {offset, factor, mean}, as expected by PixelLookupTable.forEdit()
 	 */
-	private int offsetPixelBrightness(int pixel, int offset)
+	private double[] getAdjustment(int imgIndex, int brightness, int contrast)
 	{
-		// Calculate by hand instead of using getPixelBrightness() because the individual R, G, B values are needed
-		int alpha = (pixel >>> 24) & 0xFF;
-		int r = (pixel >>> 16) & 0xFF;
-		int g = (pixel >>> 8) & 0xFF;
-		int b = pixel & 0xFF;
-		double initialBrightness = RED_WEIGHT * r + GREEN_WEIGHT * g + BLUE_WEIGHT * b;
+		LumaHistogram histogram = initHistograms.get(imgIndex);
 
-		// Non-black pixel: scale R, G, and B to get the required brightness
-		if (initialBrightness != 0)
+		int offset = 0;
+		if (brightness != 0)
 		{
-			double scaleFactor = (initialBrightness + offset) / initialBrightness;
-			r *= scaleFactor;
-			g *= scaleFactor;
-			b *= scaleFactor;
+			double initBrightness = histogram.getMean();
+			int newBrightness = piecewiseLinearMap(brightness, -100, 100, MIN_BRIGHTNESS * initBrightness, MAX_BRIGHTNESS * initBrightness,
+					initBrightness);
+			offset = (int) Math.round(newBrightness - initBrightness);
 		}
-		// Pure black pixel: just add offset to R, G, and B
-		else
+
+		LumaHistogram offsetHistogram = histogram.offsetBrightness(offset);
+		double factor = 1;
+		if (contrast != 0 && offsetHistogram.getStandardDeviation() > 0)
 		{
-			r = offset;
-			g = offset;
-			b = offset;
+			double initContrast = histogram.getStandardDeviation();
+			int newContrast = piecewiseLinearMap(contrast, -100, 100, MIN_CONTRAST * initContrast, MAX_CONTRAST * initContrast, initContrast);
+			factor = newContrast / offsetHistogram.getStandardDeviation();
 		}
 
-		// Ensure that the new R, G, B values are valid
-		if (r < 0)
-			r = 0;
-		else if (r > 255)
-			r = 255;
-		if (g < 0)
-			g = 0;
-		else if (g > 255)
-			g = 255;
-		if (b < 0)
-			b = 0;
-		else if (b > 255)
-			b = 255;
+		return new double[] { offset, factor, offsetHistogram.getMean() };
+	}
 
-		// Create new pixel with the same alpha as before
-		int newPixel = b;
-		newPixel = newPixel | (g << 8);
-		newPixel = newPixel | (r << 16);
-		newPixel = newPixel | (alpha << 24);
-		return newPixel;
+	/**
+	 * Renders an edited image from its original. Both the brightness and the
+	 * contrast adjustments are combined into one lookup table, so the original is
+	 * only copied and adjusted once. See PixelLookupTable for details.
+	 * 
+	 * @param original   The original image, which is not modified
+	 * @param adjustment The adjustment returned by getAdjustment()
+	 * @return A new image with the requested brightness and contrast
+	 */
+	private static BufferedImage render(BufferedImage original, double[] adjustment)
+	{
+		BufferedImage img = copyImage(original);
+		PixelLookupTable.forEdit((int) adjustment[0], adjustment[1], adjustment[2]).apply(img);
+		return img;
 	}
 
 	/**
-	 * Sets the contrast of all images.
+	 * Reverts all images to their unedited state by discarding the edit parameters
+	 * and the edited images in memory and sets the nominal brightness and contrast
+	 * of all images to their default values. Calling get() and getOriginal()
+	 * immediately after reset() will yield identical results.
 	 * 
-	 * @param contrast The desired contrast (in the range [-100, 100], representing
-	 *                 a change relative to the current value)
-	 * @param frame    The window on which to center the progress bar
+	 * No pixels are touched, so this method is fast.
 	 */
-	public void setContrast(int contrast, JFrame frame)
+	public synchronized void reset()
 	{
-		// Set up progress bar
-		JFrame progressFrame = new JFrame();
-		JProgressBar progressBar = new JProgressBar(0, editedImages.size());
-		try
+		edited = false;
+		editedImages.clear();
+		editedPreviews.clear();
+		for (int i = 0; i < pageFiles.size(); i++)
 		{
-			SwingUtilities.invokeAndWait(new Runnable()
+			if (isEdited(i))
+				generations.put(pageFiles.get(i), ++lastGeneration);
+			brightnessEdits.set(i, 0);
+			contrastEdits.set(i, 0);
+			currentHistograms.set(i, initHistograms.get(i));
+		}
+	}
+
+	/**
+	 * Sets the current brightness and contrast values as the default and sets the
+	 * edited images of the given pages as their originals. Pages that are not
+	 * given (e.g. because their edits could not be saved) keep their edits.
+	 * 
+	 * Changes in brightness or contrast will now be measured relative to these new
+	 * values, and getOriginal() will return images from this new set of images.
+	 * 
+	 * Edited pages that are in memory become the new originals as they are,
+	 * without being copied. When the pages are kept off-heap, every edited page is
+	 * also rendered and stored as the new original. When the pages are kept
+	 * compressed, the contents that were written to the file of each edited page
+	 * become its compressed original (or, if they are not given, the file is read
+	 * again). Otherwise, pages that are not currently in memory will be read back from
+	 * their files when they are next needed. Either way, the edits should be saved
+	 * to the files before this method is called, and the modification times of
+	 * those files are recorded again.
+	 * 
+	 * @param pages    Whether each page should be set as default, by index
+	 * @param contents The contents written to the file of each page, by index, or
+	 *                 NULL entries where they are not available
+	 * @throws UncheckedIOException If an edited page could not be rendered,
+	 *                              stored, or read back
+	 */
+	public synchronized void setDefault(boolean[] pages, byte[][] contents)
+	{
+		if (pages.length != pageFiles.size() || contents.length != pageFiles.size())
+			throw new IllegalArgumentException("Expected " + pageFiles.size() + " pages");
+
+		edited = false;
+		for (int i = 0; i < pageFiles.size(); i++)
+		{
+			if (!isEdited(i))
+				continue;
+			if (!pages[i])
 			{
-				public void run()
+				edited = true;
+				continue;
+			}
+
+			File file = pageFiles.get(i);
+			generations.put(file, ++lastGeneration);
+			// The edited preview becomes the new original preview if it can be had without decoding the page. Otherwise, the
+			// preview is made again from the saved page when it is next needed.
+			BufferedImage preview = editedPreviews.remove(file);
+			if (preview == null && originalPreviews.get(file) != null)
+				preview = getPreview(i);
+			originalPreviews.remove(file);
+			if (preview != null)
+				originalPreviews.put(file, preview);
+			editedPreviews.remove(file);
+			if (pixelStore != null)
+			{
+				try
 				{
-					progressFrame.setSize(250, 75);
-					progressFrame.setLocationRelativeTo(frame);
-					progressFrame.setUndecorated(true);
-					progressFrame.setResizable(false);
-					progressFrame.setResizable(false);
-					JPanel progressPanel = new JPanel();
-					progressPanel.setLayout(new BoxLayout(progressPanel, BoxLayout.PAGE_AXIS));
-					progressFrame.add(progressPanel);
-					progressPanel.add(Box.createVerticalGlue());
-					JLabel msg = new JLabel("Setting contrast to " + contrast + "...");
-					msg.setAlignmentX(Component.CENTER_ALIGNMENT);
-					msg.setFont(ScanProcessor.TEXT_FONT);
-					progressPanel.add(msg);
-					progressBar.setFont(ScanProcessor.TEXT_FONT);
-					progressBar.setValue(0);
-					progressBar.setString("0/" + editedImages.size());
-					progressBar.setStringPainted(true);
-					progressPanel.add(progressBar);
-					progressPanel.add(Box.createVerticalGlue());
-					progressFrame.setVisible(true);
+					pixelStore.put(file, get(i));
 				}
-			});
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			}
+			modificationTimes.put(file, file.lastModified());
+			if (compressedOriginals != null)
+			{
+				try
+				{
+					compressedOriginals.put(file, (contents[i] != null ? contents[i] : Files.readAllBytes(file.toPath())));
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			}
+			BufferedImage editedImg = editedImages.remove(file);
+			originalImages.remove(file);
+			if (editedImg != null && compressedOriginals == null)
+				originalImages.put(file, editedImg);
+			brightnessEdits.set(i, 0);
+			contrastEdits.set(i, 0);
+			// Only swap the histogram once the page has been rendered, since the edit is computed from the old one
+			initHistograms.set(i, currentHistograms.get(i));
 		}
-		catch (InvocationTargetException | InterruptedException e)
+	}
+
+	/**
+	 * Gets the edited image at the given index. If it is not in memory, it is
+	 * rendered from the original. The edited copy is only created once the page
+	 * has actually been edited; until then, the original itself is returned, so it
+	 * must not be modified.
+	 * 
+	 * Pages are decoded and rendered without holding the lock on this object, so
+	 * several pages can be requested from different threads at once.
+	 * 
+	 * @param index The index of the desired image
+	 * @return The BufferedIndex at the given index in the list of edited images
+	 * @throws UncheckedIOException If the page had to be decoded and its file
+	 *                              could not be read
+	 */
+	public BufferedImage get(int index)
+	{
+		File file;
+		double[] adjustment;
+		Long stamp;
+		synchronized (this)
 		{
-			ScanProcessor.showErrorMessage("Error: progress interrupted");
-			return;
+			if (!isEdited(index))
+				return getOriginal(index);
+
+			file = pageFiles.get(index);
+			BufferedImage img = editedImages.get(file);
+			if (img != null)
+				return img;
+			adjustment = getAdjustment(index);
+			stamp = generations.get(file);
 		}
 
-		edited = true;
-		int adjustedContrast;
-		for (int i = 0; i < originalImages.size(); i++)
+		BufferedImage img = render(getOriginal(file), adjustment);
+		synchronized (this)
 		{
-			// Map the contrast from [-100, 100] to [min * initial contrast, max * initial contrast],
-			// with 0 being the initial value
-			adjustedContrast = piecewiseLinearMap(contrast, -100, 100, MIN_CONTRAST * initContrast.get(i), MAX_CONTRAST * initContrast.get(i),
-					initContrast.get(i));
-			setImageContrast(i, adjustedContrast);
-			progressBar.setValue(i + 1);
-			progressBar.setString((i + 1) + "/" + originalImages.size());
+			// Do not cache the result if the edits changed while it was being rendered
+			if (isCurrent(file, stamp))
+				editedImages.put(file, img);
 		}
+		return img;
+	}
 
-		progressFrame.dispose();
+	/**
+	 * Gets the original image at the given index. If it is not in memory, it is
+	 * copied from the off-heap store or, if there is none, decoded from its file.
+	 * 
+	 * @param index The index of the desired image
+	 * @return The BufferedIndex at the given index in the list of original images
+	 * @throws UncheckedIOException If the page had to be decoded and its file
+	 *                              could not be read
+	 */
+	public BufferedImage getOriginal(int index)
+	{
+		File file;
+		synchronized (this)
+		{
+			file = pageFiles.get(index);
+		}
+		return getOriginal(file);
 	}
 
 	/**
-	 * Attempts to set the given image's contrast to the specified value. This is
-	 * achieved by scaling the deviation in brightness from the mean by a constant
-	 * factor for every pixel in the image. The new contrast should be non-negative,
-	 * but this is not strictly enforced. The actual resulting contrast may not be
-	 * exactly as desired due to limits on the brightness of individual pixels, and
-	 * the method does not work well for colour images.
+	 * Gets the original image of the given page as described in getOriginal(int).
+	 * The page is copied or decoded without holding the lock on this object.
 	 * 
-	 * @param imgIndex    The index of the image to be modified
-	 * @param newContrast The desired new contrast (which should be positive)
+	 * @param file The file of the desired page
+	 * @return The original image of the page
+	 * @throws UncheckedIOException If the page had to be decoded and its file
+	 *                              could not be read
 	 */
-	private void setImageContrast(int imgIndex, int newContrast)
+	private BufferedImage getOriginal(File file)
 	{
-		BufferedImage img = editedImages.get(imgIndex);
-		double avgBrightness = currentBrightness.get(imgIndex);
-		double oldContrast = currentContrast.get(imgIndex);
-		double scaleFactor = newContrast / oldContrast;
+		OffHeapPixelStore store;
+		Long stamp;
+		byte[] data;
+		Long modified;
+		synchronized (this)
+		{
+			BufferedImage img = originalImages.get(file);
+			if (img != null)
+				return img;
+			store = pixelStore;
+			stamp = generations.get(file);
+			data = (compressedOriginals != null ? compressedOriginals.get(file) : null);
+			modified = modificationTimes.get(file);
+		}
 
-		int newPixel;
-		for (int r = 0; r < img.getHeight(); r++)
+		BufferedImage img = null;
+		if (store != null)
+			img = store.get(file);
+		if (img == null)
 		{
-			for (int c = 0; c < img.getWidth(); c++)
+			try
 			{
-				newPixel = scalePixelContrast(img.getRGB(c, r), scaleFactor, avgBrightness);
-				img.setRGB(c, r, newPixel);
+				if (data == null && modified != null && file.lastModified() != modified)
+					throw new IOException(file.getAbsolutePath() + " has been modified since it was loaded");
+				img = decode(file, data, 1);
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+			synchronized (this)
+			{
+				// Do not cache the page if the originals changed while it was being decoded. Compressed pages are only
+				// kept compressed.
+				if (isCurrent(file, stamp) && compressedOriginals == null)
+				{
+					originalImages.put(file, img);
+					// Pages that were loaded at a reduced resolution are only added to the store once they are decoded
+					if (pixelStore != null)
+					{
+						try
+						{
+							pixelStore.put(file, img);
+						}
+						catch (IOException e)
+						{
+							throw new UncheckedIOException(e);
+						}
+					}
+				}
 			}
 		}
-
-		currentContrast.set(imgIndex, (double) newContrast);
+		return img;
 	}
 
 	/**
-	 * Modifies the brightness of the given pixel such that its deviation from the
-	 * mean is scaled by the specified factor. The method attempts to preserve the
-	 * R:G:B ratio, but will strictly limit each value to the range [0, 255]. The
-	 * alpha value is not changed.
+	 * Gets the preview of the edited image at the given index, scaled to fit in
+	 * ScanProcessor.MAX_IMG_WIDTH by ScanProcessor.MAX_IMG_HEIGHT. If it is not in
+	 * memory, it is rendered from the preview of the original with the same
+	 * adjustment as the full-resolution image, which only takes a few
+	 * milliseconds. Until the page has been edited, the preview of the original
+	 * itself is returned, so it must not be modified.
 	 * 
-	 * @param pixel  The pixel to be modified (in ARGB format)
-	 * @param factor The factor by which the deviation in brightness from the mean
-	 *               should be scaled
-	 * @param mean   The mean brightness in the image
-	 * @return A new ARGB pixel with the desired brightness
+	 * @param index The index of the desired image
+	 * @return The preview of the edited image
+	 * @throws UncheckedIOException If the preview of the original had to be made
+	 *                              again and the page could not be read
 	 */
-	private int scalePixelContrast(int pixel, double factor, double mean)
+	public BufferedImage getPreview(int index)
 	{
-		// Calculate by hand instead of using getPixelBrightness() because the individual R, G, B values are needed
-		int alpha = (pixel >>> 24) & 0xFF;
-		int r = (pixel >>> 16) & 0xFF;
-		int g = (pixel >>> 8) & 0xFF;
-		int b = pixel & 0xFF;
-		double initialBrightness = RED_WEIGHT * r + GREEN_WEIGHT * g + BLUE_WEIGHT * b;
-		double newBrightness = mean + factor * (initialBrightness - mean);
-
-		if (initialBrightness != 0)
+		File file;
+		double[] adjustment;
+		Long stamp;
+		synchronized (this)
 		{
-			double scaleFactor = newBrightness / initialBrightness;
-			r *= scaleFactor;
-			g *= scaleFactor;
-			b *= scaleFactor;
+			file = pageFiles.get(index);
+			adjustment = null;
+			if (isEdited(index))
+			{
+				BufferedImage img = editedPreviews.get(file);
+				if (img != null)
+					return img;
+				adjustment = getAdjustment(index);
+			}
+			stamp = generations.get(file);
 		}
-		else
+
+		BufferedImage original = getOriginalPreview(file);
+		if (adjustment == null)
+			return original;
+		BufferedImage img = render(original, adjustment);
+		synchronized (this)
 		{
-			r = (int) newBrightness;
-			g = (int) newBrightness;
-			b = (int) newBrightness;
+			// Do not cache the result if the edits changed while it was being rendered
+			if (isCurrent(file, stamp))
+				editedPreviews.put(file, img);
 		}
+		return img;
+	}
 
-		// Ensure that the new R, G, B values are valid
-		if (r < 0)
-			r = 0;
-		else if (r > 255)
-			r = 255;
-		if (g < 0)
-			g = 0;
-		else if (g > 255)
-			g = 255;
-		if (b < 0)
-			b = 0;
-		else if (b > 255)
-			b = 255;
+	/**
+	 * Renders a preview of the image at the given index with the given brightness
+	 * and contrast, without changing the edits that are recorded for it. This is
+	 * meant for showing the effect of a slider while it is being dragged, so the
+	 * result is not cached.
+	 * 
+	 * @param index      The index of the desired image
+	 * @param brightness The brightness to show (in the range [-100, 100])
+	 * @param contrast   The contrast to show (in the range [-100, 100])
+	 * @return A new preview with the given edits, or the preview of the original
+	 *         if both are 0
+	 * @throws UncheckedIOException If the preview of the original had to be made
+	 *                              again and the page could not be read
+	 */
+	public BufferedImage renderPreview(int index, int brightness, int contrast)
+	{
+		File file;
+		double[] adjustment;
+		synchronized (this)
+		{
+			file = pageFiles.get(index);
+			adjustment = (brightness == 0 && contrast == 0 ? null : getAdjustment(index, brightness, contrast));
+		}
 
-		// Create new pixel with the same alpha as before
-		int newPixel = b;
-		newPixel = newPixel | (g << 8);
-		newPixel = newPixel | (r << 16);
-		newPixel = newPixel | (alpha << 24);
-		return newPixel;
+		BufferedImage original = getOriginalPreview(file);
+		if (adjustment == null)
+			return original;
+		return render(original, adjustment);
 	}
 
 	/**
-	 * Reverts all images to their unedited state by getting a deep copy of the list
-	 * of original images and sets the nominal brightness and contrast of all images
-	 * to their default values. Calling get() and getOriginal() immediately after
-	 * reset() will yield identical results.
+	 * Gets the generation of the image at the given index. The generation changes
+	 * whenever the pixels of the edited image or the original image change (e.g.
+	 * when its brightness or contrast is set, when it is reset, or when its edits
+	 * become the default), and only then. It can be used to tell whether a copy of
+	 * the image made earlier, such as a scaled preview, is still up to date.
 	 * 
-	 * The method's progress is indicated by a progress bar, which will be centered
-	 * on the given JFrame.
+	 * @param index The index of the image
+	 * @return The generation of the image
+	 */
+	public synchronized long getGeneration(int index)
+	{
+		return generations.get(pageFiles.get(index));
+	}
+
+	/**
+	 * @param file  The file of a page
+	 * @param stamp The generation of the page when it started being rendered, or
+	 *              NULL if it had already been deleted
+	 * @return TRUE if the page still exists and has not changed since then
+	 */
+	private boolean isCurrent(File file, Long stamp)
+	{
+		Long generation = generations.get(file);
+		return generation != null && generation.equals(stamp);
+	}
+
+	/**
+	 * Gets the preview of the original image at the given index, scaled to fit in
+	 * ScanProcessor.MAX_IMG_WIDTH by ScanProcessor.MAX_IMG_HEIGHT. If it is not in
+	 * memory, it is made again from the page, decoded at the same resolution as
+	 * when the pages were loaded. The preview must not be modified.
 	 * 
-	 * @param frame The window on which to center the progress bar
+	 * @param index The index of the desired image
+	 * @return The preview of the original image
+	 * @throws UncheckedIOException If the page had to be decoded and its file
+	 *                              could not be read
 	 */
-	public void reset(JFrame frame)
+	public BufferedImage getOriginalPreview(int index)
 	{
-		// Set up progress bar
-		JFrame progressFrame = new JFrame();
-		JProgressBar progressBar = new JProgressBar(0, editedImages.size());
-		try
+		File file;
+		synchronized (this)
 		{
-			SwingUtilities.invokeAndWait(new Runnable()
-			{
-				public void run()
-				{
-					progressFrame.setSize(250, 75);
-					progressFrame.setLocationRelativeTo(frame);
-					progressFrame.setUndecorated(true);
-					progressFrame.setResizable(false);
-					progressFrame.setResizable(false);
-					JPanel progressPanel = new JPanel();
-					progressPanel.setLayout(new BoxLayout(progressPanel, BoxLayout.PAGE_AXIS));
-					progressFrame.add(progressPanel);
-					progressPanel.add(Box.createVerticalGlue());
-					JLabel msg = new JLabel("Resetting brightness and contrast...");
-					msg.setAlignmentX(Component.CENTER_ALIGNMENT);
-					msg.setFont(ScanProcessor.TEXT_FONT);
-					progressPanel.add(msg);
-					progressBar.setFont(ScanProcessor.TEXT_FONT);
-					progressBar.setValue(0);
-					progressBar.setString("0/" + editedImages.size());
-					progressBar.setStringPainted(true);
-					progressPanel.add(progressBar);
-					progressPanel.add(Box.createVerticalGlue());
-					progressFrame.setVisible(true);
-				}
-			});
+			file = pageFiles.get(index);
 		}
-		catch (InvocationTargetException | InterruptedException e)
+		return getOriginalPreview(file);
+	}
+
+	/**
+	 * Gets the preview of the original image of the given page as described in
+	 * getOriginalPreview(int). The page is decoded without holding the lock on this
+	 * object.
+	 * 
+	 * @param file The file of the desired page
+	 * @return The preview of the original image
+	 * @throws UncheckedIOException If the page had to be decoded and its file
+	 *                              could not be read
+	 */
+	private BufferedImage getOriginalPreview(File file)
+	{
+		byte[] data;
+		Long modified;
+		Long stamp;
+		synchronized (this)
 		{
+			BufferedImage preview = originalPreviews.get(file);
+			if (preview != null)
+				return preview;
+			data = (compressedOriginals != null ? compressedOriginals.get(file) : null);
+			modified = modificationTimes.get(file);
+			stamp = generations.get(file);
 		}
 
-		edited = false;
-
-		for (int i = 0; i < originalImages.size(); i++)
+		BufferedImage img;
+		if (previewSubsampling == 1)
 		{
-			editedImages.set(i, copyImage(originalImages.get(i)));
-			currentBrightness.set(i, initBrightness.get(i));
-			currentContrast.set(i, initContrast.get(i));
-			progressBar.setValue(i + 1);
-			progressBar.setString((i + 1) + "/" + progressBar.getMaximum());
+			img = getOriginal(file);
+		}
+		else
+		{
+			try
+			{
+				if (data == null && modified != null && file.lastModified() != modified)
+					throw new IOException(file.getAbsolutePath() + " has been modified since it was loaded");
+				img = decode(file, data, previewSubsampling);
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
 		}
 
-		progressFrame.dispose();
+		BufferedImage preview = makePreview(img);
+		synchronized (this)
+		{
+			// Do not cache the preview if the original changed while it was being made
+			if (isCurrent(file, stamp))
+				originalPreviews.put(file, preview);
+		}
+		return preview;
 	}
 
 	/**
-	 * Sets the current brightness and contrast values as the default and sets the
-	 * current list of edited images as the originals.
-	 * 
-	 * Changes in brightness or contrast will now be measured relative to these new
-	 * values, and getOriginal() will return images from this new set of images.
+	 * @return The number of pages
 	 */
-	public void setDefault()
+	public synchronized int size()
 	{
-		edited = false;
-		for (int i = 0; i < originalImages.size(); i++)
-		{
-			originalImages.set(i, copyImage(editedImages.get(i)));
-			initBrightness.set(i, currentBrightness.get(i));
-			initContrast.set(i, currentContrast.get(i));
-		}
+		return pageFiles.size();
 	}
 
 	/**
-	 * @param index The index of the desired image
-	 * @return The BufferedIndex at the given index in the list of edited images
+	 * @param file The file of a page
+	 * @return The index of the page, or -1 if it is not in the list (e.g. because
+	 *         it has been deleted)
 	 */
-	public BufferedImage get(int index)
+	public synchronized int indexOf(File file)
 	{
-		return editedImages.get(index);
+		return pageFiles.indexOf(file);
 	}
 
 	/**
-	 * @param index The index of the desired image
-	 * @return The BufferedIndex at the given index in the list of original images
+	 * Gets the compressed original of the page at the given index (i.e. the
+	 * contents of its file), which can be used as it is instead of encoding
+	 * getOriginal() again. If the pages are kept compressed (see
+	 * LoadOptions.BACKING_COMPRESSED), they are taken from memory; otherwise, the
+	 * file is read without holding the lock on this object. The array must not be
+	 * modified.
+	 * 
+	 * @param index The index of the desired page
+	 * @return The contents of the page's file
+	 * @throws IOException If the file had to be read and could not be, or has been
+	 *                     modified since it was loaded
 	 */
-	public BufferedImage getOriginal(int index)
+	public byte[] getCompressedOriginal(int index) throws IOException
 	{
-		return originalImages.get(index);
+		File file;
+		Long modified;
+		synchronized (this)
+		{
+			file = pageFiles.get(index);
+			if (compressedOriginals != null)
+				return compressedOriginals.get(file);
+			modified = modificationTimes.get(file);
+		}
+
+		if (modified != null && file.lastModified() != modified)
+			throw new IOException(file.getAbsolutePath() + " has been modified since it was loaded");
+		return Files.readAllBytes(file.toPath());
 	}
 
 	/**
@@ -617,14 +1116,23 @@ public class OrderedImages
 	 * 
 	 * @param index The index of the image to be deleted
 	 */
-	public void delete(int index)
+	public synchronized void delete(int index)
 	{
-		originalImages.remove(index);
-		editedImages.remove(index);
-		initBrightness.remove(index);
-		initContrast.remove(index);
-		currentBrightness.remove(index);
-		currentContrast.remove(index);
+		File file = pageFiles.remove(index);
+		generations.remove(file);
+		modificationTimes.remove(file);
+		if (compressedOriginals != null)
+			compressedOriginals.remove(file);
+		originalImages.remove(file);
+		editedImages.remove(file);
+		editedPreviews.remove(file);
+		originalPreviews.remove(file);
+		if (pixelStore != null)
+			pixelStore.remove(file);
+		brightnessEdits.remove(index);
+		contrastEdits.remove(index);
+		initHistograms.remove(index);
+		currentHistograms.remove(index);
 	}
 
 	/**
@@ -637,4 +1145,32 @@ public class OrderedImages
 	{
 		return edited;
 	}
+
+	/**
+	 * Checks if the image at the given index has been edited. Unlike isEdited(),
+	 * this is FALSE if the brightness and contrast were changed and then set back
+	 * to their default values.
+	 * 
+	 * @param index The index of the image
+	 * @return TRUE if a brightness or contrast edit is requested for the image and
+	 *         FALSE otherwise
+	 */
+	public synchronized boolean isEdited(int index)
+	{
+		return brightnessEdits.get(index) != 0 || contrastEdits.get(index) != 0;
+	}
+
+	/**
+	 * Releases the off-heap pixels and deletes the scratch file, if any. Pages
+	 * that are not in memory will be decoded from their files afterwards, so this
+	 * should only be called once the images are no longer needed.
+	 */
+	public synchronized void close()
+	{
+		if (pixelStore != null)
+		{
+			pixelStore.close();
+			pixelStore = null;
+		}
+	}
 }
@@ -1,10 +1,19 @@
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.net.MalformedURLException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
 import javax.swing.JOptionPane;
 import javax.swing.JProgressBar;
 import com.itextpdf.io.IOException;
+import com.itextpdf.io.image.ImageData;
 import com.itextpdf.io.image.ImageDataFactory;
 import com.itextpdf.kernel.geom.PageSize;
 import com.itextpdf.kernel.pdf.PdfDocument;
@@ -17,6 +26,21 @@ import com.itextpdf.layout.element.Image;
  * ScanProcessor to avoid the name collision between java.awt.Image and
  * com.itextpdf.layout.element.Image.
  * 
+ * The pages are converted in a pipeline: several worker threads read and parse
+ * the upcoming pages while a single writer adds the finished pages to the PDF in
+ * order. At most MAX_PENDING_PAGES pages are prepared ahead of the writer, which
+ * bounds the memory used however many pages are merged.
+ * 
+ * Pages can also be taken directly from an OrderedImages instance, in which case
+ * their compressed originals are embedded as they are. When OrderedImages keeps
+ * them in memory, the files are not even read again.
+ * 
+ * The size of the PDF is set by a profile. With PROFILE_ORIGINAL, the pages are
+ * embedded as they are. The other profiles downsample every page to a target
+ * resolution on a letter-sized page, optionally convert it to grayscale, and
+ * encode it again as a JPEG of a given quality. This is done by the worker
+ * threads, so that only the finished pages reach the writer.
+ * 
  * @author Louis Hildebrand
  */
 public class PDFConverter
@@ -25,6 +49,30 @@ public class PDFConverter
 	public static int CANCELLED = 1;
 	public static int IO_ERROR = 2;
 	public static int RENAME_FAIL = 3;
+	/**
+	 * Embed the pages as they are
+	 */
+	public static final int PROFILE_ORIGINAL = 0;
+	/**
+	 * 300 DPI in colour, with little compression
+	 */
+	public static final int PROFILE_ARCHIVE = 1;
+	/**
+	 * 150 DPI, with nearly gray pages converted to grayscale
+	 */
+	public static final int PROFILE_EMAIL = 2;
+	/**
+	 * 96 DPI in grayscale, with strong compression
+	 */
+	public static final int PROFILE_SCREEN = 3;
+	private static final String[] PROFILE_NAMES = { "Original", "Archive", "Email", "Screen" };
+	private static final int[] PROFILE_DPI = { 0, 300, 150, 96 };
+	private static final float[] PROFILE_JPEG_QUALITY = { 0, 0.85f, 0.7f, 0.5f };
+	// A tolerance of 255 converts every page (see GrayscaleConverter)
+	private static final int[] PROFILE_GRAYSCALE_TOLERANCE = { LoadOptions.GRAYSCALE_NEVER, LoadOptions.GRAYSCALE_NEVER, 32, 255 };
+	private static final float POINTS_PER_INCH = 72;
+	private static final int PREPARE_THREADS = Runtime.getRuntime().availableProcessors();
+	private static final int MAX_PENDING_PAGES = 2 * PREPARE_THREADS;
 	public static String TEMP_OUT_DIR =
 			System.getProperty("user.home") + File.separator + "AppData" + File.separator + "Local" + File.separator + "Temp";
 
@@ -42,6 +90,168 @@ public class PDFConverter
 	 *         error, failed to save due to cancellation)
 	 */
 	public static int convertToPDF(ArrayList<File> images, File outputDirectory, String pdfName, JProgressBar progressBar)
+	{
+		return convertToPDF(images, outputDirectory, pdfName, PROFILE_ORIGINAL, progressBar);
+	}
+
+	/**
+	 * Writes all the given files to one PDF as described in
+	 * convertToPDF(ArrayList, File, String, JProgressBar), with the given profile.
+	 * 
+	 * @param images          The files to be converted to PDF
+	 * @param outputDirectory The directory in which to save the PDF
+	 * @param pdfName         The name for the PDF
+	 * @param profile         PROFILE_ORIGINAL, PROFILE_ARCHIVE, PROFILE_EMAIL, or
+	 *                        PROFILE_SCREEN
+	 * @param progressBar     A progress bar to track the method's progress
+	 * @return A code indicating the status of the PDF (see convertToPDF())
+	 */
+	public static int convertToPDF(ArrayList<File> images, File outputDirectory, String pdfName, int profile, JProgressBar progressBar)
+	{
+		checkProfile(profile);
+		ArrayList<Callable<ImageData>> pages = new ArrayList<Callable<ImageData>>();
+		for (File image : images)
+		{
+			pages.add(new Callable<ImageData>()
+			{
+				public ImageData call() throws java.io.IOException
+				{
+					if (profile == PROFILE_ORIGINAL)
+						return ImageDataFactory.create(image.getAbsolutePath());
+					BufferedImage img = ImageIO.read(image);
+					if (img == null)
+						throw new java.io.IOException("No image could be decoded from " + image.getAbsolutePath());
+					return ImageDataFactory.create(applyProfile(img, profile));
+				}
+			});
+		}
+		return writePDF(pages, outputDirectory, pdfName, profile, progressBar);
+	}
+
+	/**
+	 * Writes all the given pages to one PDF as described in
+	 * convertToPDF(ArrayList, File, String, JProgressBar), but takes the original
+	 * pages from OrderedImages. Just as with the files, edits are only included once
+	 * they have been saved and set as the originals with OrderedImages.setDefault().
+	 * With PROFILE_ORIGINAL, the compressed originals are embedded as they are (see
+	 * OrderedImages.getCompressedOriginal()), so no page is encoded again.
+	 * 
+	 * @param images          The pages to be converted to PDF
+	 * @param outputDirectory The directory in which to save the PDF
+	 * @param pdfName         The name for the PDF
+	 * @param progressBar     A progress bar to track the method's progress
+	 * @return A code indicating the status of the PDF (see convertToPDF())
+	 */
+	public static int convertToPDF(OrderedImages images, File outputDirectory, String pdfName, JProgressBar progressBar)
+	{
+		return convertToPDF(images, outputDirectory, pdfName, PROFILE_ORIGINAL, progressBar);
+	}
+
+	/**
+	 * Writes all the given pages to one PDF as described in
+	 * convertToPDF(OrderedImages, File, String, JProgressBar), with the given
+	 * profile.
+	 * 
+	 * @param images          The pages to be converted to PDF
+	 * @param outputDirectory The directory in which to save the PDF
+	 * @param pdfName         The name for the PDF
+	 * @param profile         PROFILE_ORIGINAL, PROFILE_ARCHIVE, PROFILE_EMAIL, or
+	 *                        PROFILE_SCREEN
+	 * @param progressBar     A progress bar to track the method's progress
+	 * @return A code indicating the status of the PDF (see convertToPDF())
+	 */
+	public static int convertToPDF(OrderedImages images, File outputDirectory, String pdfName, int profile, JProgressBar progressBar)
+	{
+		checkProfile(profile);
+		ArrayList<Callable<ImageData>> pages = new ArrayList<Callable<ImageData>>();
+		for (int i = 0; i < images.size(); i++)
+		{
+			int pageIndex = i;
+			pages.add(new Callable<ImageData>()
+			{
+				public ImageData call() throws java.io.IOException
+				{
+					if (profile != PROFILE_ORIGINAL)
+						return ImageDataFactory.create(applyProfile(images.getOriginal(pageIndex), profile));
+					return ImageDataFactory.create(images.getCompressedOriginal(pageIndex));
+				}
+			});
+		}
+		return writePDF(pages, outputDirectory, pdfName, profile, progressBar);
+	}
+
+	/**
+	 * @return The names of the profiles, indexed by their constants (e.g. for a
+	 *         combo box)
+	 */
+	public static String[] getProfileNames()
+	{
+		return PROFILE_NAMES.clone();
+	}
+
+	/**
+	 * @param profile A profile
+	 * @throws IllegalArgumentException If the profile is unknown
+	 */
+	private static void checkProfile(int profile)
+	{
+		if (profile < 0 || profile >= PROFILE_NAMES.length)
+			throw new IllegalArgumentException("Unknown profile: " + profile);
+	}
+
+	/**
+	 * Prepares a page for the given profile: it is scaled down to the profile's
+	 * resolution on a letter-sized page (in the same orientation), converted to
+	 * grayscale if the profile allows it, and encoded as a JPEG of the profile's
+	 * quality. Pages are never scaled up.
+	 * 
+	 * @param img     The original page
+	 * @param profile A profile other than PROFILE_ORIGINAL
+	 * @return The contents of the JPEG file
+	 * @throws java.io.IOException If the page could not be encoded
+	 */
+	private static byte[] applyProfile(BufferedImage img, int profile) throws java.io.IOException
+	{
+		int maxWidth = Math.round(PageSize.LETTER.getWidth() * PROFILE_DPI[profile] / POINTS_PER_INCH);
+		int maxHeight = Math.round(PageSize.LETTER.getHeight() * PROFILE_DPI[profile] / POINTS_PER_INCH);
+		if (img.getWidth() > img.getHeight())
+		{
+			int temp = maxWidth;
+			maxWidth = maxHeight;
+			maxHeight = temp;
+		}
+		if (img.getWidth() > maxWidth || img.getHeight() > maxHeight)
+			img = ImageScaler.scaleToFit(img, maxWidth, maxHeight, ImageScaler.QUALITY_BICUBIC);
+
+		// Convert after scaling, which also removes most of the colour noise
+		int tolerance = PROFILE_GRAYSCALE_TOLERANCE[profile];
+		if (tolerance != LoadOptions.GRAYSCALE_NEVER)
+		{
+			BufferedImage gray = GrayscaleConverter.toGray(img, tolerance);
+			if (gray != null)
+				img = gray;
+		}
+		return JPEGEncoder.encode(img, PROFILE_JPEG_QUALITY[profile]);
+	}
+
+	/**
+	 * Writes the given pages to one PDF as described in convertToPDF(). Each page
+	 * is prepared by one of the worker threads, and the pages are added to the PDF
+	 * in order on the calling thread.
+	 * 
+	 * @param pages           The tasks preparing the image of each page
+	 * @param outputDirectory The directory in which to save the PDF
+	 * @param pdfName         The name for the PDF
+	 * @param profile         The profile with which the pages were prepared
+	 * @param progressBar     A progress bar to track the method's progress
+	 * @return A code indicating the status of the PDF (see convertToPDF())
+	 * @throws RuntimeException If a page could not be prepared for a reason other
+	 *                          than an I/O error
+	 * @throws Error            If a page could not be prepared because of an
+	 *                          error such as OutOfMemoryError
+	 */
+	private static int writePDF(ArrayList<Callable<ImageData>> pages, File outputDirectory, String pdfName, int profile,
+			JProgressBar progressBar)
 	{
 		String pdfOut = outputDirectory.getAbsolutePath() + File.separator + pdfName + ".pdf";
 
@@ -63,23 +273,40 @@ public class PDFConverter
 		}
 		tempOut = tempOut + k + ".pdf";
 
+		ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Math.min(PREPARE_THREADS, pages.size())));
+		PdfWriter pw = null;
+		Document doc = null;
+		boolean complete = false;
 		try
 		{
-			PdfWriter pw = new PdfWriter(tempOut);
+			pw = new PdfWriter(tempOut);
 			PdfDocument pdfDoc = new PdfDocument(pw);
-			Document doc = new Document(pdfDoc, PageSize.LETTER);
+			doc = new Document(pdfDoc, PageSize.LETTER);
 			doc.setMargins(0, 0, 0, 0);
 
+			ArrayDeque<Future<ImageData>> pending = new ArrayDeque<Future<ImageData>>();
+			int numSubmitted = 0;
 			Image img;
-			for (int i = 0; i < images.size(); i++)
+			for (int i = 0; i < pages.size(); i++)
 			{
-				img = new Image(ImageDataFactory.create(images.get(i).getAbsolutePath()));
+				// Keep the workers ahead of the writer, but never hold more than MAX_PENDING_PAGES pages
+				while (numSubmitted < pages.size() && pending.size() < MAX_PENDING_PAGES)
+				{
+					pending.add(workers.submit(pages.get(numSubmitted)));
+					numSubmitted++;
+				}
+
+				img = new Image(pending.remove().get());
+				// Downsampled pages have fewer pixels, so size them by the page instead
+				if (profile != PROFILE_ORIGINAL)
+					img.scaleToFit(PageSize.LETTER.getWidth(), PageSize.LETTER.getHeight());
 				doc.add(img);
 				progressBar.setValue(i + 1);
 				progressBar.setString((i + 1) + "/" + progressBar.getMaximum());
 			}
 
 			doc.close();
+			complete = true;
 
 			// Move the file to the intended destination
 			File dest = new File(pdfOut);
@@ -91,10 +318,71 @@ public class PDFConverter
 			else
 				return RENAME_FAIL;
 		}
-		catch (FileNotFoundException | MalformedURLException | IOException e)
+		catch (ExecutionException e)
+		{
+			// Pages that could not be read or encoded are reported as I/O errors. Anything else is a bug or, e.g., a lack of
+			// memory, so it is thrown once the unfinished PDF has been deleted.
+			Throwable cause = e.getCause();
+			if (cause instanceof java.io.IOException || cause instanceof UncheckedIOException || cause instanceof IOException)
+				return IO_ERROR;
+			else if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			else if (cause instanceof Error)
+				throw (Error) cause;
+			else
+				throw new IllegalStateException(cause);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return CANCELLED;
+		}
+		catch (FileNotFoundException | IOException e)
 		{
-			new File(tempOut).delete();
 			return IO_ERROR;
 		}
+		finally
+		{
+			// Stop preparing pages that will not be written
+			workers.shutdownNow();
+			if (!complete)
+			{
+				// The file must be released before it can be deleted
+				closeQuietly(doc, pw);
+				new File(tempOut).delete();
+			}
+		}
+	}
+
+	/**
+	 * Closes an unfinished PDF, ignoring any errors since the file is about to be
+	 * deleted.
+	 * 
+	 * @param doc The document, or NULL if it was not created
+	 * @param pw  The writer under the document, or NULL if it was not created
+	 */
+	private static void closeQuietly(Document doc, PdfWriter pw)
+	{
+		if (doc != null)
+		{
+			try
+			{
+				doc.close();
+			}
+			catch (RuntimeException e)
+			{
+				// e.g. a document without any pages
+			}
+		}
+		if (pw != null)
+		{
+			try
+			{
+				pw.close();
+			}
+			catch (java.io.IOException | RuntimeException e)
+			{
+			}
+		}
 	}
 }
@@ -0,0 +1,151 @@
+/**
+ * The per-pixel work of the brightness and contrast code, applied to whole rows
+ * of ARGB pixels at once: computing the luma of each pixel and scaling each
+ * pixel by a factor that depends on its luma.
+ *
+ * This class is the scalar implementation. When VectorPixelKernels (in
+ * src-vector) has been compiled and the jdk.incubator.vector module is available
+ * (i.e. the program is run with --add-modules jdk.incubator.vector), it is used
+ * instead. It is only loaded reflectively, so the program still compiles and
+ * runs without either. The vectorized
+ * kernels can be turned off by setting the system property
+ * scanprocessor.vector to false, or with setVectorEnabled(), so that both
+ * implementations can be measured on the same data. Both give exactly the same
+ * results.
+ *
+ * @author Louis Hildebrand
+ */
+public class PixelKernels
+{
+	protected static final int RED_WEIGHT = 299;
+	protected static final int GREEN_WEIGHT = 587;
+	protected static final int BLUE_WEIGHT = 114;
+	protected static final int FRACTION_BITS = 12;
+
+	private static final PixelKernels SCALAR_KERNELS = new PixelKernels();
+	private static final PixelKernels VECTOR_KERNELS = loadVectorKernels();
+	private static volatile PixelKernels kernels = (VECTOR_KERNELS != null
+			&& !"false".equalsIgnoreCase(System.getProperty("scanprocessor.vector")) ? VECTOR_KERNELS : SCALAR_KERNELS);
+
+	/**
+	 * Loads the vectorized kernels, if the jdk.incubator.vector module is
+	 * available.
+	 *
+	 * @return The vectorized kernels, or NULL if they cannot be used
+	 */
+	private static PixelKernels loadVectorKernels()
+	{
+		try
+		{
+			return (PixelKernels) Class.forName("VectorPixelKernels").getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @return The kernels currently in use
+	 */
+	public static PixelKernels getInstance()
+	{
+		return kernels;
+	}
+
+	/**
+	 * @return TRUE if the vectorized kernels can be used and FALSE otherwise
+	 */
+	public static boolean isVectorAvailable()
+	{
+		return VECTOR_KERNELS != null;
+	}
+
+	/**
+	 * @return TRUE if the vectorized kernels are currently in use and FALSE
+	 *         otherwise
+	 */
+	public static boolean isVectorEnabled()
+	{
+		return kernels == VECTOR_KERNELS;
+	}
+
+	/**
+	 * Chooses between the vectorized and the scalar kernels. The vectorized
+	 * kernels are only used if they are available.
+	 *
+	 * @param enabled TRUE to use the vectorized kernels and FALSE to use the
+	 *                scalar kernels
+	 */
+	public static void setVectorEnabled(boolean enabled)
+	{
+		kernels = (enabled && VECTOR_KERNELS != null ? VECTOR_KERNELS : SCALAR_KERNELS);
+	}
+
+	/**
+	 * Computes the luma of a run of pixels with the NTSC formula, scaled by 1000.
+	 *
+	 * @param pixels The pixels (in ARGB format)
+	 * @param offset The index of the first pixel
+	 * @param length The number of pixels
+	 * @param luma   The array in which to store the luma of each pixel, starting
+	 *               at index 0
+	 */
+	public void computeLuma(int[] pixels, int offset, int length, int[] luma)
+	{
+		for (int c = 0; c < length; c++)
+		{
+			int pixel = pixels[offset + c];
+			luma[c] = RED_WEIGHT * ((pixel >>> 16) & 0xFF) + GREEN_WEIGHT * ((pixel >>> 8) & 0xFF) + BLUE_WEIGHT * (pixel & 0xFF);
+		}
+	}
+
+	/**
+	 * Scales the R, G, and B values of a run of pixels, in place, by a
+	 * fixed-point factor looked up from each pixel's luma. Each value is limited
+	 * to the range [0, 255], and black pixels are set to the given value instead.
+	 * The alpha values are not changed.
+	 *
+	 * @param pixels     The pixels to be modified (in ARGB format)
+	 * @param offset     The index of the first pixel
+	 * @param length     The number of pixels
+	 * @param factors    The factor for each luma (scaled by 1000), with
+	 *                   FRACTION_BITS fractional bits
+	 * @param blackValue The R, G, and B value given to black pixels
+	 */
+	public void adjust(int[] pixels, int offset, int length, int[] factors, int blackValue)
+	{
+		int black = (blackValue << 16) | (blackValue << 8) | blackValue;
+		for (int i = offset; i < offset + length; i++)
+		{
+			int pixel = pixels[i];
+			int r = (pixel >>> 16) & 0xFF;
+			int g = (pixel >>> 8) & 0xFF;
+			int b = pixel & 0xFF;
+			int luma = RED_WEIGHT * r + GREEN_WEIGHT * g + BLUE_WEIGHT * b;
+			if (luma == 0)
+			{
+				pixels[i] = (pixel & 0xFF000000) | black;
+			}
+			else
+			{
+				int f = factors[luma];
+				pixels[i] = (pixel & 0xFF000000) | (scale(r, f) << 16) | (scale(g, f) << 8) | scale(b, f);
+			}
+		}
+	}
+
+	/**
+	 * Scales one colour value by a fixed-point factor, limiting the result to the
+	 * range [0, 255].
+	 *
+	 * @param value  The value to be scaled, in the range [0, 255]
+	 * @param factor The scale factor, with FRACTION_BITS fractional bits
+	 * @return The scaled value
+	 */
+	private static int scale(int value, int factor)
+	{
+		int scaled = (value * factor) >>> FRACTION_BITS;
+		return (scaled > 255 ? 255 : scaled);
+	}
+}
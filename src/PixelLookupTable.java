@@ -0,0 +1,347 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A precomputed brightness and contrast adjustment. The brightness of each pixel
+ * is first offset and then its deviation from the mean is scaled. Both steps
+ * scale the R, G, and B values of a pixel by a factor that depends only on the
+ * pixel's luma, so the combined factor is computed once for every possible luma
+ * when the table is built. Applying the table to an image then only takes one
+ * pass of integer arithmetic and array lookups, however many adjustments it
+ * combines.
+ *
+ * Rows of packed ARGB pixels are adjusted by PixelKernels, which uses SIMD
+ * instructions when the Vector API is available. The samples of 8-bit gray
+ * images are adjusted through a table of 256 entries, each sample being treated
+ * as a pixel with R = G = B = sample.
+ *
+ * Large images are split into bands of rows that are adjusted in parallel on the
+ * common fork-join pool, which never has more threads than there are
+ * processors. Since the pool is shared, pages adjusted at the same time split
+ * the threads between them rather than each starting their own.
+ *
+ * The luma is computed exactly as in LumaStatistics (the NTSC formula scaled by
+ * 1000), and the factors are stored in fixed point. For images with 8 bits per
+ * sample, a brightness-only table gives results within 1 of offsetting every
+ * pixel and clipping each channel to [0, 255], as the program always has, so
+ * tinted or near-white pixels still whiten when brightened. When the contrast is
+ * also changed, the brightness after the offset is limited to [0, 255] as a
+ * whole before being scaled, just as LumaHistogram predicts it, so dark or
+ * saturated pixels may differ more from offsetting and scaling in turn.
+ *
+ * @author Louis Hildebrand
+ */
+public class PixelLookupTable
+{
+	private static final int FRACTION_BITS = 12;
+	private static final int MAX_FACTOR = (256 << FRACTION_BITS) - 1;
+	private static final int MAX_LUMA = 255000;
+	private static final int MIN_BAND_PIXELS = 1 << 18;
+	private static final int[] RED_LUMA = new int[256];
+	private static final int[] GREEN_LUMA = new int[256];
+	private static final int[] BLUE_LUMA = new int[256];
+	static
+	{
+		for (int v = 0; v < 256; v++)
+		{
+			RED_LUMA[v] = 299 * v;
+			GREEN_LUMA[v] = 587 * v;
+			BLUE_LUMA[v] = 114 * v;
+		}
+	}
+
+	private int[] factors;
+	private int blackValue;
+
+	/**
+	 * Builds the table. Use forEdit() instead of calling this directly.
+	 *
+	 * @param offset The amount by which to increase or decrease the brightness
+	 * @param factor The factor by which the deviation in brightness from the mean
+	 *               should then be scaled
+	 * @param mean   The mean brightness in the image after the offset
+	 */
+	private PixelLookupTable(int offset, double factor, double mean)
+	{
+		factors = new int[MAX_LUMA + 1];
+		for (int luma = 1; luma <= MAX_LUMA; luma++)
+		{
+			double initialBrightness = luma / 1000.0;
+			// A brightness-only edit leaves the clipping to each channel
+			double offsetBrightness = initialBrightness + offset;
+			if (factor != 1)
+				offsetBrightness = clampBrightness(offsetBrightness);
+			double newBrightness = mean + factor * (offsetBrightness - mean);
+			double scaleFactor = newBrightness / initialBrightness;
+
+			if (scaleFactor <= 0)
+				factors[luma] = 0;
+			else if (scaleFactor >= 256)
+				factors[luma] = MAX_FACTOR;
+			else
+				factors[luma] = (int) (scaleFactor * (1 << FRACTION_BITS));
+		}
+
+		// Black pixels cannot be scaled, so they are set to the new brightness directly
+		blackValue = clamp((int) (mean + factor * (clampBrightness(offset) - mean)));
+	}
+
+	/**
+	 * Builds a table that offsets the brightness of every pixel and then scales
+	 * its deviation from the mean, preserving the R:G:B ratio of every pixel as far
+	 * as the range [0, 255] allows.
+	 *
+	 * @param offset The amount by which to increase or decrease the brightness
+	 * @param factor The factor by which the deviation in brightness from the mean
+	 *               should then be scaled
+	 * @param mean   The mean brightness in the image after the offset
+	 * @return The lookup table
+	 */
+	public static PixelLookupTable forEdit(int offset, double factor, double mean)
+	{
+		return new PixelLookupTable(offset, factor, mean);
+	}
+
+	/**
+	 * Applies the adjustment to a single pixel.
+	 *
+	 * @param pixel The pixel to be modified (in ARGB format)
+	 * @return A new ARGB pixel with the same alpha
+	 */
+	public int applyToPixel(int pixel)
+	{
+		int r = (pixel >>> 16) & 0xFF;
+		int g = (pixel >>> 8) & 0xFF;
+		int b = pixel & 0xFF;
+		int luma = RED_LUMA[r] + GREEN_LUMA[g] + BLUE_LUMA[b];
+		if (luma == 0)
+			return (pixel & 0xFF000000) | (blackValue << 16) | (blackValue << 8) | blackValue;
+
+		int f = factors[luma];
+		return (pixel & 0xFF000000) | (scale(r, f) << 16) | (scale(g, f) << 8) | scale(b, f);
+	}
+
+	/**
+	 * Applies the adjustment to every pixel in the given image, in place. Images
+	 * of type TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR, TYPE_INT_RGB, TYPE_INT_ARGB, and
+	 * TYPE_BYTE_GRAY are modified directly in their DataBuffer. Other images are
+	 * modified one row at a time through getRGB() and setRGB().
+	 *
+	 * @param img The image to be modified
+	 */
+	public void apply(BufferedImage img)
+	{
+		byte[] grayMap = (img.getType() == BufferedImage.TYPE_BYTE_GRAY ? getGrayMap() : null);
+		ForkJoinPool.commonPool().invoke(new BandAction(img, grayMap, 0, img.getHeight()));
+	}
+
+	/**
+	 * Applies the adjustment to the rows [startRow, endRow) of the given image.
+	 *
+	 * @param img      The image to be modified
+	 * @param grayMap  The table built by getGrayMap() if the image is of type
+	 *                 TYPE_BYTE_GRAY, or NULL otherwise
+	 * @param startRow The first row to modify
+	 * @param endRow   One past the last row to modify
+	 */
+	private void applyToRows(BufferedImage img, byte[] grayMap, int startRow, int endRow)
+	{
+		WritableRaster raster = img.getRaster();
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		int width = img.getWidth();
+		int x0 = -raster.getSampleModelTranslateX();
+		int y0 = -raster.getSampleModelTranslateY();
+
+		switch (img.getType())
+		{
+			case BufferedImage.TYPE_3BYTE_BGR:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			{
+				ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+				byte[] data = ((DataBufferByte) dataBuffer).getData();
+				int pixelStride = sm.getPixelStride();
+				int scanlineStride = sm.getScanlineStride();
+				int[] offsets = sm.getBandOffsets();
+				int rOffset = offsets[0];
+				int gOffset = offsets[1];
+				int bOffset = offsets[2];
+				byte black = (byte) blackValue;
+				for (int row = startRow; row < endRow; row++)
+				{
+					int i = dataBuffer.getOffset() + (y0 + row) * scanlineStride + x0 * pixelStride;
+					for (int c = 0; c < width; c++, i += pixelStride)
+					{
+						int r = data[i + rOffset] & 0xFF;
+						int g = data[i + gOffset] & 0xFF;
+						int b = data[i + bOffset] & 0xFF;
+						int luma = RED_LUMA[r] + GREEN_LUMA[g] + BLUE_LUMA[b];
+						if (luma == 0)
+						{
+							data[i + rOffset] = black;
+							data[i + gOffset] = black;
+							data[i + bOffset] = black;
+						}
+						else
+						{
+							int f = factors[luma];
+							data[i + rOffset] = (byte) scale(r, f);
+							data[i + gOffset] = (byte) scale(g, f);
+							data[i + bOffset] = (byte) scale(b, f);
+						}
+					}
+				}
+				break;
+			}
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+			{
+				SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+				int[] data = ((DataBufferInt) dataBuffer).getData();
+				int scanlineStride = sm.getScanlineStride();
+				PixelKernels kernels = PixelKernels.getInstance();
+				for (int row = startRow; row < endRow; row++)
+				{
+					kernels.adjust(data, dataBuffer.getOffset() + (y0 + row) * scanlineStride + x0, width, factors, blackValue);
+				}
+				break;
+			}
+			case BufferedImage.TYPE_BYTE_GRAY:
+			{
+				ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+				byte[] data = ((DataBufferByte) dataBuffer).getData();
+				int scanlineStride = sm.getScanlineStride();
+				int offset = dataBuffer.getOffset() + sm.getBandOffsets()[0];
+				for (int row = startRow; row < endRow; row++)
+				{
+					int i = offset + (y0 + row) * scanlineStride + x0;
+					for (int c = 0; c < width; c++, i++)
+					{
+						data[i] = grayMap[data[i] & 0xFF];
+					}
+				}
+				break;
+			}
+			default:
+			{
+				int[] pixels = new int[width];
+				PixelKernels kernels = PixelKernels.getInstance();
+				for (int row = startRow; row < endRow; row++)
+				{
+					img.getRGB(0, row, width, 1, pixels, 0, width);
+					kernels.adjust(pixels, 0, width, factors, blackValue);
+					img.setRGB(0, row, width, 1, pixels, 0, width);
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Builds a table mapping each 8-bit gray sample to its adjusted value. Gray
+	 * samples are display values (see GrayscaleConverter), so each sample is
+	 * adjusted exactly like a pixel with R = G = B = sample, whose luma is the
+	 * sample itself.
+	 *
+	 * @return The adjusted sample for each input sample
+	 */
+	private byte[] getGrayMap()
+	{
+		byte[] grayMap = new byte[256];
+		for (int v = 0; v < 256; v++)
+		{
+			grayMap[v] = (byte) applyToPixel((v << 16) | (v << 8) | v);
+		}
+		return grayMap;
+	}
+
+	/**
+	 * Scales one colour value by a fixed-point factor, limiting the result to the
+	 * range [0, 255].
+	 *
+	 * @param value  The value to be scaled, in the range [0, 255]
+	 * @param factor The scale factor, with FRACTION_BITS fractional bits
+	 * @return The scaled value
+	 */
+	private static int scale(int value, int factor)
+	{
+		int scaled = (value * factor) >>> FRACTION_BITS;
+		return (scaled > 255 ? 255 : scaled);
+	}
+
+	/**
+	 * @param value A colour value
+	 * @return The value limited to the range [0, 255]
+	 */
+	private static int clamp(int value)
+	{
+		if (value < 0)
+			return 0;
+		else if (value > 255)
+			return 255;
+		else
+			return value;
+	}
+
+	/**
+	 * @param brightness A brightness value
+	 * @return The value limited to the range [0, 255]
+	 */
+	private static double clampBrightness(double brightness)
+	{
+		if (brightness < 0)
+			return 0;
+		else if (brightness > 255)
+			return 255;
+		else
+			return brightness;
+	}
+
+	/**
+	 * Adjusts a band of rows, splitting it in two until each band is small enough
+	 * to be adjusted on one thread.
+	 */
+	private class BandAction extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private BufferedImage img;
+		private byte[] grayMap;
+		private int startRow;
+		private int endRow;
+
+		/**
+		 * @param img      The image to be modified
+		 * @param grayMap  The table built by getGrayMap(), or NULL
+		 * @param startRow The first row in the band
+		 * @param endRow   One past the last row in the band
+		 */
+		public BandAction(BufferedImage img, byte[] grayMap, int startRow, int endRow)
+		{
+			this.img = img;
+			this.grayMap = grayMap;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		protected void compute()
+		{
+			int numRows = endRow - startRow;
+			if (numRows < 2 || (long) numRows * img.getWidth() <= MIN_BAND_PIXELS)
+			{
+				applyToRows(img, grayMap, startRow, endRow);
+				return;
+			}
+
+			int midRow = startRow + numRows / 2;
+			invokeAll(new BandAction(img, grayMap, startRow, midRow), new BandAction(img, grayMap, midRow, endRow));
+		}
+	}
+}
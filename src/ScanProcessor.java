@@ -4,7 +4,6 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.GridLayout;
-import java.awt.Image;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.FocusEvent;
@@ -14,15 +13,25 @@ import java.awt.event.ItemListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import javax.imageio.ImageIO;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -33,6 +42,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JSlider;
 import javax.swing.JTextField;
 import javax.swing.JToggleButton;
+import javax.swing.JViewport;
 import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
@@ -75,6 +85,16 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 	private static final int DEFAULT_BRIGHTNESS = 0;
 	private static final int DEFAULT_CONTRAST = 0;
 	private static final int PREVIEW_BUTTON_SPACING = 55;
+	private static final int TASK_RELOAD = 0;
+	private static final int TASK_BRIGHTNESS = 1;
+	private static final int TASK_CONTRAST = 2;
+	private static final int TASK_RESET = 3;
+	private static final int TASK_RUN = 4;
+	private static final int TASK_PREFETCH = 0;
+	private static final int TASK_ZOOM = 0;
+	private static final int PREFETCH_PAGES = 3;
+	private static final double STATISTICS_TOLERANCE = 0.5;
+	private static final int GRAYSCALE_TOLERANCE = 3;
 	private static final File DEFAULT_IN_DIR = new File(System.getProperty("user.home") + File.separator + "Pictures");
 	private static final String DEFAULT_IN_PREFIX = "img";
 	private static final File DEFAULT_OUT_DIR = new File(System.getProperty("user.home") + File.separator + "Pictures");
@@ -101,6 +121,7 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 	private JCheckBox rename;
 	private JCheckBox adjustBrightnessAndContrast;
 	private JCheckBox convertToPDF;
+	private JComboBox<String> pdfProfile;
 	private JLabel imagePreviewName;
 	private JLabel imagePreview;
 	private JButton previewLeftButton;
@@ -126,6 +147,12 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 	private ArrayList<File> orderedFiles;
 	private OrderedImages orderedImages;
 	private JFrame progressFrame;
+	private CoalescingExecutor editExecutor = new CoalescingExecutor("Scan processor tasks");
+	private ExecutorService livePreviewRenderer = Executors.newSingleThreadExecutor();
+	private CoalescingExecutor previewPrefetcher = new CoalescingExecutor("Preview prefetcher", Thread.MIN_PRIORITY);
+	private CoalescingExecutor zoomLoader = new CoalescingExecutor("Zoom loader");
+	private AtomicReference<int[]> pendingLivePreview = new AtomicReference<int[]>();
+	private AtomicInteger livePreviewGeneration = new AtomicInteger(0);
 
 	/**
 	 * Creates an instance of ScanProcessor and calls createAndShowGUI() on the EDT
@@ -519,6 +546,25 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 		operationPanel.add(convertToPDF);
 		activeComponents.add(convertToPDF);
 
+		JPanel pdfProfilePanel = new JPanel();
+		pdfProfilePanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+		pdfProfilePanel.setOpaque(false);
+		pdfProfilePanel.setLayout(new BoxLayout(pdfProfilePanel, BoxLayout.LINE_AXIS));
+		operationPanel.add(pdfProfilePanel);
+
+		JLabel pdfProfileLabel = new JLabel("PDF profile: ");
+		pdfProfileLabel.setFont(TEXT_FONT);
+		pdfProfileLabel.setForeground(TEXT_COLOR);
+		pdfProfilePanel.add(pdfProfileLabel);
+
+		// The items are indexed by the PDFConverter profile constants
+		pdfProfile = new JComboBox<String>(PDFConverter.getProfileNames());
+		pdfProfile.setSelectedIndex(PDFConverter.PROFILE_ORIGINAL);
+		pdfProfile.setFont(TEXT_FONT);
+		pdfProfile.setMaximumSize(pdfProfile.getPreferredSize());
+		pdfProfilePanel.add(pdfProfile);
+		activeComponents.add(pdfProfile);
+
 		optionPanel.add(Box.createRigidArea(new Dimension(10, SPACING)));
 
 		// -- Run program
@@ -668,7 +714,7 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 
 		if (setAutoBounds())
 		{
-			Thread updateThread = new Thread(new Runnable()
+			editExecutor.submit(TASK_RELOAD, new Runnable()
 			{
 				public void run()
 				{
@@ -677,7 +723,6 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 					updateImagePreview();
 				}
 			});
-			updateThread.start();
 		}
 		else
 		{
@@ -910,7 +955,7 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 			if (minFileNum != newMinInt)
 			{
 				minFileNum = newMinInt;
-				Thread updateThread = new Thread(new Runnable()
+				editExecutor.submit(TASK_RELOAD, new Runnable()
 				{
 					public void run()
 					{
@@ -919,7 +964,6 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 						updateImagePreview();
 					}
 				});
-				updateThread.start();
 			}
 		}
 		catch (NumberFormatException e)
@@ -966,7 +1010,7 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 			if (maxFileNum != newMaxInt)
 			{
 				maxFileNum = newMaxInt;
-				Thread updateThread = new Thread(new Runnable()
+				editExecutor.submit(TASK_RELOAD, new Runnable()
 				{
 					public void run()
 					{
@@ -975,7 +1019,6 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 						updateImagePreview();
 					}
 				});
-				updateThread.start();
 			}
 		}
 		catch (NumberFormatException e)
@@ -990,6 +1033,9 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 	 * the list is not null and the index is valid, the image is set as the icon for
 	 * the imagePreview label and the filename is displayed above. Otherwise, the
 	 * label is made blank.
+	 * 
+	 * The previews kept by orderedImages are already scaled to fit in
+	 * MAX_IMG_WIDTH by MAX_IMG_HEIGHT, so no full-resolution page is needed.
 	 */
 	private void updateImagePreview()
 	{
@@ -998,27 +1044,23 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 			File file = orderedFiles.get(imagePreviewIndex);
 			imagePreviewName.setText(file.getName());
 			BufferedImage buffImg;
-			if (showOriginal.isSelected())
-				buffImg = orderedImages.getOriginal(imagePreviewIndex);
-			else
-				buffImg = orderedImages.get(imagePreviewIndex);
-
-			// Get image dimensions
-			int width, height;
-			// -- Tall image
-			if (buffImg.getHeight() * MAX_IMG_WIDTH >= buffImg.getWidth() * MAX_IMG_HEIGHT)
+			try
 			{
-				height = MAX_IMG_HEIGHT;
-				width = buffImg.getWidth() * height / buffImg.getHeight();
+				if (showOriginal.isSelected())
+					buffImg = orderedImages.getOriginalPreview(imagePreviewIndex);
+				else
+					buffImg = orderedImages.getPreview(imagePreviewIndex);
 			}
-			// -- Wide image
-			else
+			catch (UncheckedIOException e)
 			{
-				width = MAX_IMG_WIDTH;
-				height = buffImg.getHeight() * width / buffImg.getWidth();
+				// Previews that are not in memory are made again from their pages, which may no longer be readable
+				imagePreviewName.setText(file.getName() + " could not be read");
+				imagePreview.setIcon(null);
+				return;
 			}
 
-			imagePreview.setIcon(new ImageIcon(buffImg.getScaledInstance(width, height, Image.SCALE_SMOOTH)));
+			imagePreview.setIcon(new ImageIcon(buffImg));
+			prefetchPreviews();
 		}
 		else
 		{
@@ -1032,7 +1074,9 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 	 * determined by the "Interlace pages" and "Reverse even-numbered pages"
 	 * options. The files are saved in the orderedFiles list, and the images are
 	 * then loaded in to the orderedImages list. The GUI is locked until all the
-	 * images are loaded.
+	 * images are loaded. If loading is interrupted because a newer request has
+	 * replaced this one (see CoalescingExecutor), the lists are left empty and no
+	 * error is shown.
 	 * 
 	 * If "Interlace pages" is selected, the files are considered to be numbered
 	 * such that all odd-numbered pages were scanned before the even-numbered pages.
@@ -1106,9 +1150,19 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 		orderedFiles = orderedPages;
 		try
 		{
+			if (orderedImages != null)
+				orderedImages.close();
 			orderedImages = null;
-			System.gc();
-			orderedImages = new OrderedImages(orderedFiles, window);
+			// The full-resolution pages are only needed for the output, so they are decoded later from the compressed
+			// contents of their files, and the statistics are estimated from a sample of each page. Gray pages are stored
+			// with a single channel. Edited pages are saved from those images, so only pages whose colour differs by no
+			// more than JPEG noise count as gray.
+			LoadOptions options = new LoadOptions();
+			options.setPixelBacking(LoadOptions.BACKING_COMPRESSED);
+			options.setPreviewSubsampling(LoadOptions.SUBSAMPLING_AUTO);
+			options.setStatisticsTolerance(STATISTICS_TOLERANCE);
+			options.setGrayscaleTolerance(GRAYSCALE_TOLERANCE);
+			orderedImages = new OrderedImages(orderedFiles, window, options);
 
 			// Update image preview index and buttons
 			if (imagePreviewIndex >= orderedFiles.size())
@@ -1124,6 +1178,14 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 
 			unlockGUI();
 		}
+		catch (InterruptedIOException e)
+		{
+			// A newer request to load the pages replaced this one, so it will load them instead
+			orderedFiles = null;
+			orderedImages = null;
+			unlockGUI();
+			return;
+		}
 		catch (IOException e)
 		{
 			showErrorMessage("An unexpected IO error occurred and the images could not be loaded");
@@ -1286,6 +1348,8 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 						msg = "  > " + orderedFiles.get(unsuccessful[i]).getName();
 						progressPanel.add(makeLabel(msg, TEXT_FONT, ERROR_TEXT_COLOR, Component.LEFT_ALIGNMENT));
 					}
+					msg = "  Their edits were kept and can be saved again";
+					progressPanel.add(makeLabel(msg, TEXT_FONT, ERROR_TEXT_COLOR, Component.LEFT_ALIGNMENT));
 				}
 			}
 			progressPanel.revalidate();
@@ -1329,7 +1393,20 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 			progressBar.setValue(0);
 			progressBar.setString("0/" + progressBar.getMaximum());
 			progressLabel.setText("Merging files...");
-			int outcome = PDFConverter.convertToPDF(orderedFiles, outputDirectory, pdfName, progressBar);
+			// Take the pages from memory rather than reading every file again
+			int outcome;
+			try
+			{
+				outcome = PDFConverter.convertToPDF(orderedImages, outputDirectory, pdfName, pdfProfile.getSelectedIndex(), progressBar);
+			}
+			catch (RuntimeException | Error e)
+			{
+				// The failure is reported by the executor, but the GUI must not stay locked
+				progressFrame.dispose();
+				progressFrame = null;
+				unlockGUI();
+				throw e;
+			}
 			if (outcome == PDFConverter.SUCCESS)
 			{
 				msg = "- Successfully merged all files to ";
@@ -1383,32 +1460,109 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 	/**
 	 * Saves the brightness and contrast edits in all the images. Also sets the new
 	 * brightness and contrast values as the defaults in the ordered list of images.
+	 * The sliders are only reset if every page was saved; otherwise, the pages that
+	 * could not be saved keep their edits, so that they can be saved again.
+	 * 
+	 * The pages are rendered and saved in parallel on the common fork-join pool,
+	 * which also renders the bands of each page (see PixelLookupTable), so the
+	 * pages and their bands share the same threads. The method only returns once
+	 * every page is done.
 	 * 
 	 * @param progressBar A progress bar to track the method's progress
 	 * @return The indices of all files for which the edits could not be saved
 	 */
 	private int[] adjustBrightnessAndContrast(JProgressBar progressBar)
 	{
-		// Set the edits as default
-		orderedImages.setDefault();
-		brightness = 0;
-		brightnessSlider.setValue(0);
-		contrast = 0;
-		contrastSlider.setValue(0);
+		// Each worker records whether its page was saved at the page's own index, so the result does not depend on the
+		// order in which the pages finish
+		int numPages = orderedFiles.size();
+		boolean[] saved = new boolean[numPages];
+		byte[][] contents = new byte[numPages][];
+		AtomicInteger numDone = new AtomicInteger(0);
+		AtomicBoolean cancelled = new AtomicBoolean(false);
+		CountDownLatch finished = new CountDownLatch(numPages);
+		for (int i = 0; i < numPages; i++)
+		{
+			int pageIndex = i;
+			ForkJoinPool.commonPool().execute(new Runnable()
+			{
+				public void run()
+				{
+					// Pages without edits are left as they are rather than being encoded again
+					try
+					{
+						if (cancelled.get())
+							return;
+						if (orderedImages.isEdited(pageIndex))
+						{
+							// Encode the page once, and keep the same bytes as its new compressed original
+							byte[] data = JPEGEncoder.encode(orderedImages.get(pageIndex));
+							Files.write(orderedFiles.get(pageIndex).toPath(), data);
+							contents[pageIndex] = data;
+						}
+						saved[pageIndex] = true;
+					}
+					catch (IOException | UncheckedIOException e)
+					{
+					}
+					finally
+					{
+						finished.countDown();
+					}
 
-		ArrayList<Integer> unsuccessful = new ArrayList<Integer>();
-		for (int i = 0; i < orderedFiles.size(); i++)
+					numDone.incrementAndGet();
+					SwingUtilities.invokeLater(new Runnable()
+					{
+						public void run()
+						{
+							// Read the counter instead of capturing it since the updates from different workers may arrive out of order
+							int done = numDone.get();
+							progressBar.setValue(done);
+							progressBar.setString(done + "/" + progressBar.getMaximum());
+						}
+					});
+				}
+			});
+		}
+		try
 		{
-			try
+			finished.await();
+		}
+		catch (InterruptedException e)
+		{
+			// Pages that have not been saved yet are reported as unsuccessful. The pages being written are still finished so
+			// that no file changes after its page has been reported.
+			cancelled.set(true);
+			while (finished.getCount() > 0)
 			{
-				ImageIO.write(orderedImages.get(i), "jpg", orderedFiles.get(i));
+				try
+				{
+					finished.await();
+				}
+				catch (InterruptedException e2)
+				{
+				}
 			}
-			catch (IOException e)
-			{
+			Thread.currentThread().interrupt();
+		}
+
+		ArrayList<Integer> unsuccessful = new ArrayList<Integer>();
+		for (int i = 0; i < numPages; i++)
+		{
+			if (!saved[i])
 				unsuccessful.add(i);
-			}
-			progressBar.setValue(i + 1);
-			progressBar.setString((i + 1) + "/" + progressBar.getMaximum());
+		}
+
+		// Set the edits as default. This must be done after saving since pages that are no longer in memory will be read
+		// back from their files. Pages that were not saved keep their edits, and so do the sliders so that the edits can
+		// be saved again.
+		orderedImages.setDefault(saved, contents);
+		if (unsuccessful.isEmpty())
+		{
+			brightness = 0;
+			brightnessSlider.setValue(0);
+			contrast = 0;
+			contrastSlider.setValue(0);
 		}
 
 		int[] unsuccessfulIndices = new int[unsuccessful.size()];
@@ -1542,45 +1696,102 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 	}
 
 	/**
-	 * Creates a new window with the zoomed-in image. The dimensions are chosen to
-	 * fully fill the frame and the image is placed in a scroll pane to allow the
-	 * user to view the rest of the image.
+	 * Loads the full-resolution version of the current page in the background and
+	 * then shows it in a new window (see showZoomedImage()). The page may have to
+	 * be decoded and rendered, so this is not done on the event dispatch thread. If
+	 * zoom is requested again before the page is ready, only the newest request is
+	 * shown.
+	 * 
+	 * The request is tied to the file of the page rather than its index, since
+	 * pages may be deleted or the list reloaded while the page is loading. The
+	 * result is dropped if the page is no longer the one being previewed.
 	 */
 	private void makeZoomedImage()
+	{
+		OrderedImages images = orderedImages;
+		if (images == null)
+			return;
+		File file = orderedFiles.get(imagePreviewIndex);
+		boolean original = showOriginal.isSelected();
+		zoomLoader.submit(TASK_ZOOM, new Runnable()
+		{
+			public void run()
+			{
+				BufferedImage img;
+				try
+				{
+					int index = images.indexOf(file);
+					if (index < 0)
+						return;
+					img = (original ? images.getOriginal(index) : images.get(index));
+					// An earlier page was deleted in the meantime, so the image may be of another page
+					if (images.indexOf(file) != index)
+						return;
+				}
+				catch (UncheckedIOException e)
+				{
+					SwingUtilities.invokeLater(new Runnable()
+					{
+						public void run()
+						{
+							showErrorMessage("The page could not be loaded: " + e.getCause().getMessage());
+						}
+					});
+					return;
+				}
+				catch (IndexOutOfBoundsException e)
+				{
+					// The page was deleted in the meantime
+					return;
+				}
+
+				// A newer request replaced this one
+				if (Thread.interrupted())
+					return;
+				SwingUtilities.invokeLater(new Runnable()
+				{
+					public void run()
+					{
+						if (images == orderedImages && isPreviewed(file))
+							showZoomedImage(img);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * @param file The file of a page
+	 * @return TRUE if the page is the one currently shown in the preview
+	 */
+	private boolean isPreviewed(File file)
+	{
+		return orderedFiles != null && imagePreviewIndex < orderedFiles.size() && orderedFiles.get(imagePreviewIndex).equals(file);
+	}
+
+	/**
+	 * Creates a new window with the zoomed-in image. The image is shown in a
+	 * ZoomViewer, which initially fills the width of the frame (or its height, for
+	 * wide images) and allows the user to zoom in and out and to pan around the
+	 * image.
+	 * 
+	 * @param img The full-resolution image to be shown
+	 */
+	private void showZoomedImage(BufferedImage img)
 	{
 		JFrame zoomedFrame = new JFrame();
 		zoomedFrame.setSize(ZOOMED_PANE_WIDTH, ZOOMED_PANE_HEIGHT);
 		zoomedFrame.setResizable(false);
 		zoomedFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 
-		JLabel zoomedImage = new JLabel();
-		Image img;
-		if (showOriginal.isSelected())
-			img = orderedImages.getOriginal(imagePreviewIndex);
-		else
-			img = orderedImages.get(imagePreviewIndex);
-
-		// Get image dimensions
-		int width, height;
-		// -- Tall image
-		if (img.getHeight(null) * ZOOMED_IMG_WIDTH >= img.getWidth(null) * ZOOMED_IMG_HEIGHT)
-		{
-			width = ZOOMED_IMG_WIDTH;
-			height = img.getHeight(null) * width / img.getWidth(null);
-		}
-		// -- Wide image
-		else
-		{
-			height = ZOOMED_IMG_HEIGHT;
-			width = img.getWidth(null) * height / img.getHeight(null);
-		}
-
-		img = img.getScaledInstance(width, height, Image.SCALE_SMOOTH);
-		zoomedImage.setIcon(new ImageIcon(img));
-
-		JScrollPane scrollPane = new JScrollPane(zoomedImage);
+		ZoomViewer viewer = new ZoomViewer(img, ZOOMED_IMG_WIDTH, ZOOMED_IMG_HEIGHT);
+		JScrollPane scrollPane = new JScrollPane(viewer);
 		scrollPane.getVerticalScrollBar().setUnitIncrement(16);
-		zoomedFrame.add(scrollPane);
+		scrollPane.getHorizontalScrollBar().setUnitIncrement(16);
+		// Only the newly exposed strip needs to be drawn when the viewport moves
+		scrollPane.getViewport().setScrollMode(JViewport.BLIT_SCROLL_MODE);
+		zoomedFrame.add(viewer.createControls(), BorderLayout.NORTH);
+		zoomedFrame.add(scrollPane, BorderLayout.CENTER);
 
 		zoomedFrame.setVisible(true);
 	}
@@ -1629,7 +1840,7 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 					// Update the list of pages if any were found, otherwise just make the lists null
 					if (setAutoBounds())
 					{
-						Thread updateThread = new Thread(new Runnable()
+						editExecutor.submit(TASK_RELOAD, new Runnable()
 						{
 							public void run()
 							{
@@ -1638,7 +1849,6 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 								updateImagePreview();
 							}
 						});
-						updateThread.start();
 					}
 					else
 					{
@@ -1696,7 +1906,7 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 			case "RESET_DEFAULT":
 				if (orderedImages.isEdited())
 				{
-					Thread resetThread = new Thread(new Runnable()
+					editExecutor.submit(TASK_RESET, new Runnable()
 					{
 						public void run()
 						{
@@ -1707,16 +1917,16 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 							ignoreStateChange = true;
 							contrastSlider.setValue(DEFAULT_CONTRAST);
 							contrast = DEFAULT_CONTRAST;
-							orderedImages.reset(window);
+							orderedImages.reset();
 							updateImagePreview();
 							unlockGUI();
 						}
 					});
-					resetThread.start();
 				}
 				break;
 			case "RUN":
-				Thread runThread = new Thread(new Runnable()
+				// Processing must not be interrupted partway through, so repeated requests are ignored instead
+				editExecutor.submitIfIdle(TASK_RUN, new Runnable()
 				{
 
 					public void run()
@@ -1725,7 +1935,6 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 					}
 
 				});
-				runThread.start();
 				break;
 			case "PREVIEW_LEFT":
 				imagePreviewIndex--;
@@ -1760,7 +1969,7 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 				contrastSlider.setValue(0);
 				if (setAutoBounds())
 				{
-					Thread refreshThread = new Thread(new Runnable()
+					editExecutor.submit(TASK_RELOAD, new Runnable()
 					{
 						public void run()
 						{
@@ -1771,7 +1980,6 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 							unlockGUI();
 						}
 					});
-					refreshThread.start();
 				}
 				else
 				{
@@ -1787,9 +1995,11 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 	/**
 	 * Handles state changes from sliders (i.e. the brightness and contrast
 	 * sliders). In every case, the brightness and contrast labels are updated to
-	 * reflect the current value of the slider. If the user has finished adjusting
-	 * the value and has selected a different value from the one currently saved in
-	 * the corresponding instance variable, the images are edited. If
+	 * reflect the current value of the slider. While the user is adjusting the
+	 * value, the effect is shown on the page in the preview (see
+	 * requestLivePreview()). If the user has finished adjusting the value and has
+	 * selected a different value from the one currently saved in the corresponding
+	 * instance variable, the images are edited. If
 	 * ignoreStateChange is TRUE the method will set it to FALSE and return, but
 	 * only after updating the label.
 	 */
@@ -1806,20 +2016,32 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 				ignoreStateChange = false;
 				return;
 			}
-			if (!brightnessSlider.getValueIsAdjusting() && brightnessSlider.getValue() != brightness)
+			if (brightnessSlider.getValueIsAdjusting())
+			{
+				requestLivePreview();
+				return;
+			}
+
+			// Any live preview frames that have not been shown yet are out of date
+			livePreviewGeneration.incrementAndGet();
+			if (brightnessSlider.getValue() != brightness)
 			{
 				brightness = brightnessSlider.getValue();
-				Thread brightnessThread = new Thread(new Runnable()
+				editExecutor.submit(TASK_BRIGHTNESS, new Runnable()
 				{
 					public void run()
 					{
 						lockGUI();
-						orderedImages.setBrightness(brightness, window);
+						orderedImages.setBrightness(brightness);
 						updateImagePreview();
 						unlockGUI();
 					}
 				});
-				brightnessThread.start();
+			}
+			else
+			{
+				// Replace the last live preview frame, which may not have shown the final value
+				updateImagePreview();
 			}
 		}
 		else if (source == contrastSlider)
@@ -1830,26 +2052,129 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 				ignoreStateChange = false;
 				return;
 			}
-			if (!contrastSlider.getValueIsAdjusting() && contrastSlider.getValue() != contrast)
+			if (contrastSlider.getValueIsAdjusting())
+			{
+				requestLivePreview();
+				return;
+			}
+
+			// Any live preview frames that have not been shown yet are out of date
+			livePreviewGeneration.incrementAndGet();
+			if (contrastSlider.getValue() != contrast)
 			{
 				contrast = contrastSlider.getValue();
-				Thread contrastThread = new Thread(new Runnable()
+				editExecutor.submit(TASK_CONTRAST, new Runnable()
 				{
 
 					public void run()
 					{
 						lockGUI();
-						orderedImages.setContrast(contrast, window);
+						orderedImages.setContrast(contrast);
 						updateImagePreview();
 						unlockGUI();
 					}
 
 				});
-				contrastThread.start();
+			}
+			else
+			{
+				// Replace the last live preview frame, which may not have shown the final value
+				updateImagePreview();
 			}
 		}
 	}
 
+	/**
+	 * Shows the effect of the current slider values on the page in the preview
+	 * while a slider is being dragged. Only that page is rendered, at preview
+	 * resolution, on a single background thread, and the edits recorded in
+	 * orderedImages are not changed. If new values arrive while a frame is being
+	 * rendered, only the latest ones are rendered next and the others are
+	 * dropped.
+	 */
+	private void requestLivePreview()
+	{
+		OrderedImages images = orderedImages;
+		if (images == null || showOriginal.isSelected() || imagePreviewIndex >= orderedFiles.size())
+			return;
+
+		int[] request = new int[] { imagePreviewIndex, brightnessSlider.getValue(), contrastSlider.getValue(), livePreviewGeneration.get() };
+		// Only start a task if there is none waiting to pick up the request already
+		if (pendingLivePreview.getAndSet(request) != null)
+			return;
+		livePreviewRenderer.execute(new Runnable()
+		{
+			public void run()
+			{
+				int[] latest = pendingLivePreview.getAndSet(null);
+				BufferedImage img;
+				try
+				{
+					img = images.renderPreview(latest[0], latest[1], latest[2]);
+				}
+				catch (IndexOutOfBoundsException | UncheckedIOException e)
+				{
+					// The page was deleted in the meantime or can no longer be read
+					return;
+				}
+
+				SwingUtilities.invokeLater(new Runnable()
+				{
+					public void run()
+					{
+						// Drop the frame if the slider has been released or another page is shown in the meantime
+						if (latest[3] == livePreviewGeneration.get() && latest[0] == imagePreviewIndex && images == orderedImages)
+							imagePreview.setIcon(new ImageIcon(img));
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Renders the previews of the PREFETCH_PAGES pages before and after the
+	 * current one on a low-priority background thread, nearest pages first, so
+	 * that they are already cached in orderedImages when the user moves to them.
+	 * A new request (e.g. when the user moves to another page) cancels the
+	 * previous one.
+	 */
+	private void prefetchPreviews()
+	{
+		OrderedImages images = orderedImages;
+		int index = imagePreviewIndex;
+		int numPages = orderedFiles.size();
+		previewPrefetcher.submit(TASK_PREFETCH, new Runnable()
+		{
+			public void run()
+			{
+				for (int i = 1; i <= PREFETCH_PAGES; i++)
+				{
+					for (int neighbour : new int[] { index + i, index - i })
+					{
+						if (Thread.interrupted())
+							return;
+						if (neighbour < 0 || neighbour >= numPages)
+							continue;
+
+						try
+						{
+							images.getPreview(neighbour);
+						}
+						catch (IndexOutOfBoundsException e)
+						{
+							// A page was deleted in the meantime
+							return;
+						}
+						catch (UncheckedIOException e)
+						{
+							// The page is reported if it is shown
+						}
+					}
+				}
+			}
+		});
+	}
+
 	/**
 	 * Empty method to satisfy the requirements of the FocusListener interface.
 	 */
@@ -1911,7 +2236,7 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 			else
 				reverseEvenPages.setEnabled(true);
 
-			Thread updateThread = new Thread(new Runnable()
+			editExecutor.submit(TASK_RELOAD, new Runnable()
 			{
 				public void run()
 				{
@@ -1919,11 +2244,10 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 					updateImagePreview();
 				}
 			});
-			updateThread.start();
 		}
 		else if (source == reverseEvenPages)
 		{
-			Thread updateThread = new Thread(new Runnable()
+			editExecutor.submit(TASK_RELOAD, new Runnable()
 			{
 
 				public void run()
@@ -1932,7 +2256,6 @@ public class ScanProcessor implements ActionListener, ChangeListener, FocusListe
 					updateImagePreview();
 				}
 			});
-			updateThread.start();
 		}
 	}
 }
@@ -0,0 +1,416 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+/**
+ * A panel that shows a page at several zoom levels, meant to be placed in a
+ * JScrollPane. Only the tiles that are visible in the viewport are drawn. Each
+ * tile is rendered from the smallest level of a multi-resolution pyramid of the
+ * page that is still at least as large as the current zoom, and the rendered
+ * tiles are kept in an LRU cache. The levels of the pyramid are each half the
+ * size of the previous one and are only built when they are first needed.
+ *
+ * The page can be panned by dragging it with the mouse, and zoomed with the
+ * buttons from createControls() or by turning the mouse wheel while holding
+ * Ctrl.
+ *
+ * @author Louis Hildebrand
+ */
+public class ZoomViewer extends JPanel implements Scrollable
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final double[] ZOOM_LEVELS = { 0.125, 0.25, 0.5, 0.75, 1, 1.5, 2, 3, 4 };
+	private static final int TILE_SIZE = 256;
+	private static final int TILE_CACHE_SIZE = 96;
+	private static final int SCROLL_UNIT = 16;
+	private static final Color BACKGROUND_COLOR = Color.GRAY;
+
+	private ArrayList<BufferedImage> pyramid;
+	private double[] zoomLevels;
+	private int zoomIndex;
+	private LRUCache<Long, BufferedImage> tiles;
+	private JLabel zoomLabel;
+	private Point dragStart;
+
+	/**
+	 * Creates a viewer for the given page. The initial zoom fills the width of the
+	 * viewport if the page is tall and its height if the page is wide.
+	 *
+	 * @param img            The full-resolution page
+	 * @param viewportWidth  The width of the area in which the page will be shown
+	 * @param viewportHeight The height of the area in which the page will be shown
+	 */
+	public ZoomViewer(BufferedImage img, int viewportWidth, int viewportHeight)
+	{
+		pyramid = new ArrayList<BufferedImage>();
+		pyramid.add(img);
+		tiles = new LRUCache<Long, BufferedImage>(TILE_CACHE_SIZE);
+
+		// Add the zoom that fits the viewport to the standard levels
+		double fitZoom;
+		// -- Tall image
+		if ((long) img.getHeight() * viewportWidth >= (long) img.getWidth() * viewportHeight)
+			fitZoom = (double) viewportWidth / img.getWidth();
+		// -- Wide image
+		else
+			fitZoom = (double) viewportHeight / img.getHeight();
+		zoomIndex = Arrays.binarySearch(ZOOM_LEVELS, fitZoom);
+		if (zoomIndex >= 0)
+		{
+			zoomLevels = ZOOM_LEVELS;
+		}
+		else
+		{
+			zoomIndex = -zoomIndex - 1;
+			zoomLevels = new double[ZOOM_LEVELS.length + 1];
+			System.arraycopy(ZOOM_LEVELS, 0, zoomLevels, 0, zoomIndex);
+			zoomLevels[zoomIndex] = fitZoom;
+			System.arraycopy(ZOOM_LEVELS, zoomIndex, zoomLevels, zoomIndex + 1, ZOOM_LEVELS.length - zoomIndex);
+		}
+
+		setBackground(BACKGROUND_COLOR);
+		setSize(getPreferredSize());
+
+		MouseAdapter mouseHandler = new MouseAdapter()
+		{
+			@Override
+			public void mousePressed(MouseEvent e)
+			{
+				dragStart = e.getLocationOnScreen();
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e)
+			{
+				if (dragStart == null)
+					return;
+				Point location = e.getLocationOnScreen();
+				scrollBy(dragStart.x - location.x, dragStart.y - location.y);
+				dragStart = location;
+			}
+
+			@Override
+			public void mouseReleased(MouseEvent e)
+			{
+				dragStart = null;
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e)
+			{
+				if (e.isControlDown())
+				{
+					Point anchor = SwingUtilities.convertPoint(ZoomViewer.this, e.getPoint(), getParent());
+					if (e.getWheelRotation() < 0)
+						setZoomIndex(zoomIndex + 1, anchor);
+					else if (e.getWheelRotation() > 0)
+						setZoomIndex(zoomIndex - 1, anchor);
+				}
+				else
+				{
+					int amount = (int) Math.round(e.getPreciseWheelRotation() * e.getScrollAmount() * SCROLL_UNIT);
+					if (e.isShiftDown())
+						scrollBy(amount, 0);
+					else
+						scrollBy(0, amount);
+				}
+			}
+		};
+		addMouseListener(mouseHandler);
+		addMouseMotionListener(mouseHandler);
+		addMouseWheelListener(mouseHandler);
+	}
+
+	/**
+	 * Creates a panel with buttons to zoom in and out and a label showing the
+	 * current zoom.
+	 *
+	 * @return The panel
+	 */
+	public JPanel createControls()
+	{
+		JPanel controls = new JPanel(new FlowLayout(FlowLayout.CENTER));
+
+		JButton zoomOutButton = new JButton("-");
+		zoomOutButton.setFont(ScanProcessor.TEXT_FONT);
+		zoomOutButton.addActionListener(new ActionListener()
+		{
+			public void actionPerformed(ActionEvent e)
+			{
+				zoomOut();
+			}
+		});
+		controls.add(zoomOutButton);
+
+		zoomLabel = new JLabel();
+		zoomLabel.setFont(ScanProcessor.TEXT_FONT);
+		zoomLabel.setHorizontalAlignment(SwingConstants.CENTER);
+		zoomLabel.setPreferredSize(new Dimension(70, zoomOutButton.getPreferredSize().height));
+		controls.add(zoomLabel);
+		updateZoomLabel();
+
+		JButton zoomInButton = new JButton("+");
+		zoomInButton.setFont(ScanProcessor.TEXT_FONT);
+		zoomInButton.addActionListener(new ActionListener()
+		{
+			public void actionPerformed(ActionEvent e)
+			{
+				zoomIn();
+			}
+		});
+		controls.add(zoomInButton);
+
+		return controls;
+	}
+
+	/**
+	 * @return The current zoom, as a fraction of the full-resolution size
+	 */
+	public double getZoom()
+	{
+		return zoomLevels[zoomIndex];
+	}
+
+	/**
+	 * Moves to the next larger zoom level, keeping the center of the viewport in
+	 * place.
+	 */
+	public void zoomIn()
+	{
+		setZoomIndex(zoomIndex + 1, null);
+	}
+
+	/**
+	 * Moves to the next smaller zoom level, keeping the center of the viewport in
+	 * place.
+	 */
+	public void zoomOut()
+	{
+		setZoomIndex(zoomIndex - 1, null);
+	}
+
+	/**
+	 * Changes the zoom level, keeping the point of the page under the anchor in
+	 * place.
+	 *
+	 * @param index  The index of the new zoom level. Indices outside of the range
+	 *               of zoom levels are ignored.
+	 * @param anchor The point to keep in place, relative to the viewport, or NULL
+	 *               to use the center of the viewport
+	 */
+	private void setZoomIndex(int index, Point anchor)
+	{
+		if (index < 0 || index >= zoomLevels.length || index == zoomIndex)
+			return;
+
+		double oldZoom = getZoom();
+		zoomIndex = index;
+		double newZoom = getZoom();
+		setSize(getPreferredSize());
+		revalidate();
+		updateZoomLabel();
+
+		if (getParent() instanceof JViewport)
+		{
+			JViewport viewport = (JViewport) getParent();
+			Rectangle view = viewport.getViewRect();
+			if (anchor == null)
+				anchor = new Point(view.width / 2, view.height / 2);
+			int x = (int) Math.round((view.x + anchor.x) / oldZoom * newZoom) - anchor.x;
+			int y = (int) Math.round((view.y + anchor.y) / oldZoom * newZoom) - anchor.y;
+			setViewPosition(viewport, x, y);
+		}
+		repaint();
+	}
+
+	/**
+	 * Shows the zoom in the label from createControls(), if there is one.
+	 */
+	private void updateZoomLabel()
+	{
+		if (zoomLabel != null)
+			zoomLabel.setText(Math.round(getZoom() * 100) + "%");
+	}
+
+	/**
+	 * Moves the viewport by the given distance.
+	 *
+	 * @param dx The horizontal distance, in pixels
+	 * @param dy The vertical distance, in pixels
+	 */
+	private void scrollBy(int dx, int dy)
+	{
+		if (!(getParent() instanceof JViewport))
+			return;
+		JViewport viewport = (JViewport) getParent();
+		Point position = viewport.getViewPosition();
+		setViewPosition(viewport, position.x + dx, position.y + dy);
+	}
+
+	/**
+	 * Moves the viewport to the given position, limited so that it stays within
+	 * the page.
+	 *
+	 * @param viewport The viewport containing this panel
+	 * @param x        The desired x coordinate of the top-left corner
+	 * @param y        The desired y coordinate of the top-left corner
+	 */
+	private void setViewPosition(JViewport viewport, int x, int y)
+	{
+		Dimension extent = viewport.getExtentSize();
+		x = Math.max(0, Math.min(x, getWidth() - extent.width));
+		y = Math.max(0, Math.min(y, getHeight() - extent.height));
+		viewport.setViewPosition(new Point(x, y));
+	}
+
+	/**
+	 * @return The size of the page at the current zoom
+	 */
+	@Override
+	public Dimension getPreferredSize()
+	{
+		BufferedImage img = pyramid.get(0);
+		return new Dimension((int) Math.ceil(img.getWidth() * getZoom()), (int) Math.ceil(img.getHeight() * getZoom()));
+	}
+
+	/**
+	 * Draws the tiles that intersect the area to be painted.
+	 */
+	@Override
+	protected void paintComponent(Graphics g)
+	{
+		super.paintComponent(g);
+
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+		Dimension size = getPreferredSize();
+		int firstColumn = Math.max(0, clip.x / TILE_SIZE);
+		int lastColumn = Math.min((size.width - 1) / TILE_SIZE, (clip.x + clip.width - 1) / TILE_SIZE);
+		int firstRow = Math.max(0, clip.y / TILE_SIZE);
+		int lastRow = Math.min((size.height - 1) / TILE_SIZE, (clip.y + clip.height - 1) / TILE_SIZE);
+		for (int row = firstRow; row <= lastRow; row++)
+		{
+			for (int column = firstColumn; column <= lastColumn; column++)
+			{
+				g.drawImage(getTile(column, row), column * TILE_SIZE, row * TILE_SIZE, null);
+			}
+		}
+	}
+
+	/**
+	 * Gets the tile at the given position for the current zoom level, rendering it
+	 * if it is not in the cache.
+	 *
+	 * @param column The column of the tile
+	 * @param row    The row of the tile
+	 * @return The tile. Tiles on the right and bottom edges may be smaller than
+	 *         TILE_SIZE.
+	 */
+	private BufferedImage getTile(int column, int row)
+	{
+		long key = ((long) zoomIndex << 48) | ((long) row << 24) | column;
+		BufferedImage tile = tiles.get(key);
+		if (tile != null)
+			return tile;
+
+		double zoom = getZoom();
+		BufferedImage level = getLevel(zoom);
+		Dimension size = getPreferredSize();
+		int x = column * TILE_SIZE;
+		int y = row * TILE_SIZE;
+		int width = Math.min(TILE_SIZE, size.width - x);
+		int height = Math.min(TILE_SIZE, size.height - y);
+
+		int type = (level.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		tile = new BufferedImage(width, height, type);
+		Graphics2D g = tile.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.translate(-x, -y);
+		// The pyramid levels are rounded down, so scale each axis separately to line up with the full page
+		g.scale(zoom * pyramid.get(0).getWidth() / level.getWidth(), zoom * pyramid.get(0).getHeight() / level.getHeight());
+		g.drawImage(level, 0, 0, null);
+		g.dispose();
+
+		tiles.put(key, tile);
+		return tile;
+	}
+
+	/**
+	 * Gets the smallest level of the pyramid that is at least as large as the page
+	 * at the given zoom, building the missing levels if necessary.
+	 *
+	 * @param zoom The zoom, as a fraction of the full-resolution size
+	 * @return The level
+	 */
+	private BufferedImage getLevel(double zoom)
+	{
+		int index = 0;
+		double levelZoom = 1;
+		while (levelZoom / 2 >= zoom)
+		{
+			index++;
+			levelZoom /= 2;
+			if (index == pyramid.size())
+			{
+				BufferedImage previous = pyramid.get(index - 1);
+				if (previous.getWidth() < 2 || previous.getHeight() < 2)
+					return previous;
+				pyramid.add(ImageScaler.scale(previous, previous.getWidth() / 2, previous.getHeight() / 2, ImageScaler.QUALITY_BILINEAR));
+			}
+		}
+		return pyramid.get(index);
+	}
+
+	@Override
+	public Dimension getPreferredScrollableViewportSize()
+	{
+		return getPreferredSize();
+	}
+
+	@Override
+	public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction)
+	{
+		return SCROLL_UNIT;
+	}
+
+	@Override
+	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction)
+	{
+		return (orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width) - SCROLL_UNIT;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportWidth()
+	{
+		return false;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportHeight()
+	{
+		return false;
+	}
+}
@@ -0,0 +1,125 @@
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Checks that brightness-only lookup tables give the same results, within 1 per
+ * channel, as the original per-pixel brightness adjustment, which scales R, G,
+ * and B by the change in brightness and clips each of them to [0, 255].
+ *
+ * The program has no test framework, so this is run as a plain program (e.g.
+ * java -cp bin:test-bin PixelLookupTableTest) and exits with an error if any
+ * pixel differs by more than 1.
+ *
+ * @author Louis Hildebrand
+ */
+public class PixelLookupTableTest
+{
+	private static final double RED_WEIGHT = 0.299;
+	private static final double GREEN_WEIGHT = 0.587;
+	private static final double BLUE_WEIGHT = 0.114;
+	private static final int[] OFFSETS = { 1, 7, 40, 100, 255, -7, -40 };
+	private static final int NUM_PIXELS = 1 << 20;
+	private static final int SEED = 42;
+	private static final int WIDTH = 1024;
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(SEED);
+		int[] pixels = new int[NUM_PIXELS];
+		for (int i = 0; i < NUM_PIXELS; i++)
+		{
+			// Half random colours, half nearly gray pixels such as paper
+			if (i % 2 == 0)
+			{
+				pixels[i] = random.nextInt() & 0xFFFFFF;
+			}
+			else
+			{
+				int v = random.nextInt(256);
+				pixels[i] = (clamp(v + random.nextInt(9) - 4) << 16) | (clamp(v + random.nextInt(9) - 4) << 8) | clamp(v + random.nextInt(9) - 4);
+			}
+		}
+
+		int failures = 0;
+		for (int offset : OFFSETS)
+		{
+			PixelLookupTable table = PixelLookupTable.forEdit(offset, 1, 0);
+
+			BufferedImage img = new BufferedImage(WIDTH, NUM_PIXELS / WIDTH, BufferedImage.TYPE_INT_RGB);
+			img.setRGB(0, 0, WIDTH, NUM_PIXELS / WIDTH, pixels, 0, WIDTH);
+			table.apply(img);
+			int[] applied = img.getRGB(0, 0, WIDTH, NUM_PIXELS / WIDTH, null, 0, WIDTH);
+
+			int maxDifference = 0;
+			for (int i = 0; i < NUM_PIXELS; i++)
+			{
+				int expected = offsetPixelBrightness(pixels[i], offset);
+				maxDifference = Math.max(maxDifference, getDifference(expected, table.applyToPixel(pixels[i])));
+				maxDifference = Math.max(maxDifference, getDifference(expected, applied[i]));
+			}
+			System.out.println("Offset " + offset + ": largest difference " + maxDifference);
+			if (maxDifference > 1)
+				failures++;
+		}
+
+		if (failures > 0)
+			throw new AssertionError(failures + " offsets differ by more than 1 from the reference");
+	}
+
+	/**
+	 * The original brightness adjustment: R, G, and B are scaled so that the
+	 * brightness changes by the offset, and each is then clipped to [0, 255].
+	 *
+	 * @param pixel  The pixel to be modified (in ARGB format)
+	 * @param offset The amount by which to increase or decrease the brightness
+	 * @return A new ARGB pixel with the desired brightness
+	 */
+	private static int offsetPixelBrightness(int pixel, int offset)
+	{
+		int alpha = (pixel >>> 24) & 0xFF;
+		int r = (pixel >>> 16) & 0xFF;
+		int g = (pixel >>> 8) & 0xFF;
+		int b = pixel & 0xFF;
+		double initialBrightness = RED_WEIGHT * r + GREEN_WEIGHT * g + BLUE_WEIGHT * b;
+
+		if (initialBrightness != 0)
+		{
+			double scaleFactor = (initialBrightness + offset) / initialBrightness;
+			r *= scaleFactor;
+			g *= scaleFactor;
+			b *= scaleFactor;
+		}
+		else
+		{
+			r = offset;
+			g = offset;
+			b = offset;
+		}
+
+		return (alpha << 24) | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+	}
+
+	/**
+	 * @param a An RGB pixel
+	 * @param b Another RGB pixel
+	 * @return The largest difference between the R, G, or B values of the pixels
+	 */
+	private static int getDifference(int a, int b)
+	{
+		int max = 0;
+		for (int shift = 0; shift <= 16; shift += 8)
+		{
+			max = Math.max(max, Math.abs(((a >>> shift) & 0xFF) - ((b >>> shift) & 0xFF)));
+		}
+		return max;
+	}
+
+	/**
+	 * @param value A colour value
+	 * @return The value limited to the range [0, 255]
+	 */
+	private static int clamp(int value)
+	{
+		return Math.max(0, Math.min(255, value));
+	}
+}